@@ -227,6 +227,18 @@ class GlobalExceptionHandler {
         return toJsonResponse(HttpStatus.PAYLOAD_TOO_LARGE, request, e.getMessage());
     }
 
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(ServiceUnavailableException.class)
+    @ResponseBody
+    ResponseEntity<String> handleServiceUnavailableException(HttpServletRequest request, ServiceUnavailableException e) {
+        logger.warn("ServiceUnavailableException was caught for request: " + request.getRequestURL());
+        ResponseEntity<String> rtn = toJsonResponse(HttpStatus.SERVICE_UNAVAILABLE, request, e.getMessage());
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.putAll(rtn.getHeaders());
+        responseHeaders.add("Retry-After", String.valueOf(e.getRetryAfter()));
+        return new ResponseEntity<>(rtn.getBody(), responseHeaders, rtn.getStatusCode());
+    }
+
     //================================================================================
     // Neo4j
     //================================================================================
@@ -1,43 +1,42 @@
 package org.reactome.server.service.controller.exporter;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.NameValuePair;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
 import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.analysis.core.result.utils.TokenUtils;
 import org.reactome.server.graph.domain.model.Event;
 import org.reactome.server.graph.service.DatabaseObjectService;
 import org.reactome.server.graph.service.SchemaService;
 import org.reactome.server.service.exception.BadRequestException;
+import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.EventPdfManager;
+import org.reactome.server.service.utils.ExportReporter;
+import org.reactome.server.service.utils.PdfCache;
 import org.reactome.server.tools.event.exporter.DocumentArgs;
-import org.reactome.server.tools.event.exporter.EventExporter;
 import org.reactome.server.tools.reaction.exporter.compartment.ReactomeCompartmentFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.net.ConnectException;
+import java.io.File;
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.*;
 
 /**
+ * Documents are sent as a {@link StreamingResponseBody}. Spring only streams a ResponseEntity when its
+ * declared body type is StreamingResponseBody, so the job status (JSON) that may be answered instead
+ * by the same methods is streamed as well.
+ *
  * @author Antonio Fabregat (fabregat@ebi.ac.uk)
  * @author Lorente-Arencibia, Pascual (plorente@ebi.ac.uk)
  */
@@ -46,21 +45,22 @@ import java.util.*;
 @RequestMapping("/exporter")
 public class EventPdfController {
 
-    private static final Object REPORT_SEMAPHORE = new Object();
-    private static long REPORT_COUNT = 0L;
-    private static final int ALLOWED_CONCURRENT_REPORTS = 2;
     private static final int MAX_LEVEL = 1;
 
-    private static final Logger logger = LoggerFactory.getLogger("infoLogger");
+    //Same configuration than the message converter used for the controllers' responses
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
-    @Value("${report.user:default}")
-    private String reportUser;
-    @Value("${report.password:default}")
-    private String reportPassword;
+    // Maximum time (in ms) a synchronous request waits for its document
+    @Value("${event.pdf.wait:120000}")
+    private long syncWait;
 
     private DatabaseObjectService dos;
     private TokenUtils tokenUtils;
-    private EventExporter eventExporter;
+    private EventPdfManager eventPdfManager;
+    private PdfCache pdfCache;
+    private ExportReporter exportReporter;
 
     @ApiOperation(
             value = "Exports the content of a given event (pathway or reaction) to a PDF document",
@@ -71,51 +71,144 @@ public class EventPdfController {
                     "<br/> - Literature references" +
                     "<br/> - Edit history" +
                     "<br/> - Other details: type, location, compartments, diseases" +
-                    "<br/><br/>Documents can also be overlaid with <a href='/dev/analysis' target=\"_blank\">pathway analysis results</a>",
+                    "<br/><br/>Documents can also be overlaid with <a href='/dev/analysis' target=\"_blank\">pathway analysis results</a>" +
+                    "<br/><br/>When the document is not ready in time, the status of its generation job is returned instead (code 202) " +
+                    "and the document can be downloaded from the job once it has finished",
             produces = "application/pdf"
     )
     @ApiResponses({
+            @ApiResponse(code = 202, message = "The document is still being generated. The job status is returned."),
             @ApiResponse(code = 404, message = "Stable Identifier does not match with any of the available diagrams."),
             @ApiResponse(code = 500, message = "Could not deserialize diagram file."),
-            @ApiResponse(code = 503, message = "Service was unable to export to Power Point.")
+            @ApiResponse(code = 503, message = "Too many documents are being generated.")
     })
     @RequestMapping(value = "/document/event/{identifier}.pdf", method = RequestMethod.GET)
-    public void eventPdf(@ApiParam(value = "Event identifier (it can be a pathway with diagram, a subpathway or a reaction)", required = true, defaultValue = "R-HSA-177929")
-                        @PathVariable String identifier,
-
-                         @ApiParam(value = "Number of levels to explore down in the pathways hierarchy [0 - 1]", defaultValue = "1")
-                        @RequestParam(value = "level [0 - 1]", required = false, defaultValue = "1") Integer level,
-                         @ApiParam(value = "Diagram Color Profile", defaultValue = "Modern", allowableValues = "Modern, Standard")
-                        @RequestParam(value = "diagramProfile", defaultValue = "Modern", required = false) String diagramProfile,
-                         @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> token with the results to be overlaid on top of the given diagram")
-                        @RequestParam(value = "token", required = false) String token,
-                         @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> resource for which the results will be overlaid on top of the given pathways overview")
-                        @RequestParam(value = "resource", required = false, defaultValue = "total") String resource,
-                         @ApiParam(value = "Expression column. When the token is associated to an expression analysis, this parameter allows specifying the expression column for the overlay")
-                        @RequestParam(value = "expColumn", required = false) Integer expColumn,
-                         @ApiParam(value = "Analysis  Color Profile", defaultValue = "Standard", allowableValues = "Standard, Strosobar, Copper%20Plus")
-                        @RequestParam(value = "analysisProfile", defaultValue = "Standard", required = false) String analysisProfile,
-
-                         HttpServletRequest request, HttpServletResponse response) throws IOException, InterruptedException {
-
-        long waitingTime = 0L;
-        synchronized (REPORT_SEMAPHORE) {
-            if (++REPORT_COUNT > ALLOWED_CONCURRENT_REPORTS) {
-                long waitStart = System.currentTimeMillis();
-                REPORT_SEMAPHORE.wait();
-                waitingTime = System.currentTimeMillis() - waitStart;
-            }
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> eventPdf(@ApiParam(value = "Event identifier (it can be a pathway with diagram, a subpathway or a reaction)", required = true, defaultValue = "R-HSA-177929")
+                                                     @PathVariable String identifier,
+
+                                                      @ApiParam(value = "Number of levels to explore down in the pathways hierarchy [0 - 1]", defaultValue = "1")
+                                                     @RequestParam(value = "level [0 - 1]", required = false, defaultValue = "1") Integer level,
+                                                      @ApiParam(value = "Diagram Color Profile", defaultValue = "Modern", allowableValues = "Modern, Standard")
+                                                     @RequestParam(value = "diagramProfile", defaultValue = "Modern", required = false) String diagramProfile,
+                                                      @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> token with the results to be overlaid on top of the given diagram")
+                                                     @RequestParam(value = "token", required = false) String token,
+                                                      @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> resource for which the results will be overlaid on top of the given pathways overview")
+                                                     @RequestParam(value = "resource", required = false, defaultValue = "total") String resource,
+                                                      @ApiParam(value = "Expression column. When the token is associated to an expression analysis, this parameter allows specifying the expression column for the overlay")
+                                                     @RequestParam(value = "expColumn", required = false) Integer expColumn,
+                                                      @ApiParam(value = "Analysis  Color Profile", defaultValue = "Standard", allowableValues = "Standard, Strosobar, Copper%20Plus")
+                                                     @RequestParam(value = "analysisProfile", defaultValue = "Standard", required = false) String analysisProfile,
+
+                                                      HttpServletRequest request) {
+        EventPdfManager.Job job = submit(identifier, level, diagramProfile, token, resource, expColumn, analysisProfile, request);
+        // The request cannot be used once the deferred result has been set
+        String contextPath = request.getContextPath();
+        Map<String, String> map = ExportReporter.getClientInformation(request);
+        // Long-poll fallback: the servlet thread is released while the document is generated
+        DeferredResult<ResponseEntity<StreamingResponseBody>> rtn = new DeferredResult<>(syncWait);
+        rtn.onTimeout(() -> rtn.setResult(getAccepted(job, contextPath).body(json(getStatus(job, contextPath)))));
+        job.getFuture().thenAccept(j -> rtn.setResult(getDocument(j, contextPath, map)));
+        return rtn;
+    }
+
+    @ApiOperation(
+            value = "Queues the export of a given event (pathway or reaction) to a PDF document",
+            notes = "Same as the synchronous export, but the status of the generation job is returned straight away. " +
+                    "The status reports the position in the queue and the estimated time (in ms) until the document is ready. " +
+                    "Once finished, the document can be downloaded from the job.",
+            produces = "application/json"
+    )
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "Stable Identifier does not match with any of the available diagrams."),
+            @ApiResponse(code = 503, message = "Too many documents are being generated.")
+    })
+    @RequestMapping(value = "/document/event/{identifier}/job", method = RequestMethod.POST, produces = "application/json")
+    public ResponseEntity<Map<String, Object>> eventPdfJob(@ApiParam(value = "Event identifier (it can be a pathway with diagram, a subpathway or a reaction)", required = true, defaultValue = "R-HSA-177929")
+                                        @PathVariable String identifier,
+
+                                         @ApiParam(value = "Number of levels to explore down in the pathways hierarchy [0 - 1]", defaultValue = "1")
+                                        @RequestParam(value = "level [0 - 1]", required = false, defaultValue = "1") Integer level,
+                                         @ApiParam(value = "Diagram Color Profile", defaultValue = "Modern", allowableValues = "Modern, Standard")
+                                        @RequestParam(value = "diagramProfile", defaultValue = "Modern", required = false) String diagramProfile,
+                                         @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> token with the results to be overlaid on top of the given diagram")
+                                        @RequestParam(value = "token", required = false) String token,
+                                         @ApiParam(value = "The <a href=\"/dev/analysis\" target=\"_blank\">analysis</a> resource for which the results will be overlaid on top of the given pathways overview")
+                                        @RequestParam(value = "resource", required = false, defaultValue = "total") String resource,
+                                         @ApiParam(value = "Expression column. When the token is associated to an expression analysis, this parameter allows specifying the expression column for the overlay")
+                                        @RequestParam(value = "expColumn", required = false) Integer expColumn,
+                                         @ApiParam(value = "Analysis  Color Profile", defaultValue = "Standard", allowableValues = "Standard, Strosobar, Copper%20Plus")
+                                        @RequestParam(value = "analysisProfile", defaultValue = "Standard", required = false) String analysisProfile,
+
+                                         HttpServletRequest request) {
+        EventPdfManager.Job job = submit(identifier, level, diagramProfile, token, resource, expColumn, analysisProfile, request);
+        return getAccepted(job, request.getContextPath()).body(getStatus(job, request.getContextPath()));
+    }
+
+    @ApiOperation(
+            value = "Retrieves the status of a PDF document generation job",
+            notes = "When wait is provided, the answer is held until the job finishes or the given time (in ms) has elapsed",
+            produces = "application/json"
+    )
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "The job does not exist or has expired.")
+    })
+    @RequestMapping(value = "/document/job/{id}", method = RequestMethod.GET, produces = "application/json")
+    public DeferredResult<Map<String, Object>> jobStatus(@ApiParam(value = "The job identifier", required = true)
+                                                        @PathVariable String id,
+                                                         @ApiParam(value = "Maximum time (in ms) to wait for the job to finish", defaultValue = "0")
+                                                        @RequestParam(value = "wait", required = false, defaultValue = "0") Long wait,
+                                                         HttpServletRequest request) {
+        EventPdfManager.Job job = getJob(id);
+        String contextPath = request.getContextPath();
+        long timeout = Math.max(0L, Math.min(wait, syncWait));
+        DeferredResult<Map<String, Object>> rtn = new DeferredResult<>(timeout > 0 ? timeout : null);
+        if (timeout == 0 || job.getFuture().isDone()) {
+            rtn.setResult(getStatus(job, contextPath));
+        } else {
+            rtn.onTimeout(() -> rtn.setResult(getStatus(job, contextPath)));
+            job.getFuture().thenAccept(j -> rtn.setResult(getStatus(j, contextPath)));
         }
+        return rtn;
+    }
 
+    @ApiOperation(
+            value = "Downloads the PDF document generated by a job",
+            notes = "While the document is still being generated, the job status is returned instead (code 202)",
+            produces = "application/pdf"
+    )
+    @ApiResponses({
+            @ApiResponse(code = 202, message = "The document is still being generated. The job status is returned."),
+            @ApiResponse(code = 404, message = "The job does not exist or has expired."),
+            @ApiResponse(code = 500, message = "The document could not be generated.")
+    })
+    @RequestMapping(value = "/document/job/{id}.pdf", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> jobDocument(@ApiParam(value = "The job identifier", required = true)
+                                        @PathVariable String id,
+                                         HttpServletRequest request) {
+        return getDocument(getJob(id), request.getContextPath(), ExportReporter.getClientInformation(request));
+    }
+
+    @ApiIgnore
+    @RequestMapping(value = "/document/jobs", method = RequestMethod.GET, produces = "application/json")
+    public Map<String, Object> getJobsMetrics() {
+        Map<String, Object> rtn = eventPdfManager.getMetrics();
+        rtn.put("reports", exportReporter.getMetrics());
+        return rtn;
+    }
+
+    private EventPdfManager.Job submit(String identifier, Integer level, String diagramProfile, String token, String resource,
+                                       Integer expColumn, String analysisProfile, HttpServletRequest request) {
         Event event;
         try {
             event = dos.findById(identifier);
         } catch (ClassCastException ex) {
             throw new BadRequestException(String.format("'%s' is not an event", identifier));
         }
+        if (event == null) throw new NotFoundException(String.format("'%s' does not match any event", identifier));
 
+        String serverName = getServerName(request);
         DocumentArgs args = new DocumentArgs(event.getStId())
-                .setServerName(getServerName(request))
+                .setServerName(serverName)
                 .setDiagramProfile(diagramProfile)
                 .setSpecies(event.getSpecies().get(0).getDbId())
                 .setMaxLevel(getLevel(level))
@@ -124,35 +217,103 @@ public class EventPdfController {
                 .setExpressionColumn(expColumn);
 
         AnalysisStoredResult analysisResult = null;
+        String cacheKey = null;
         if (token != null) {
             analysisResult = tokenUtils.getFromToken(token);
+        } else {
+            cacheKey = pdfCache.getDocumentKey(event.getStId(), getLevel(level), diagramProfile, serverName);
         }
 
-        try {
-            long reportStart = System.currentTimeMillis();
-            response.addHeader("Content-Type", "application/pdf");
-            int pages = eventExporter.export(args, analysisResult, response.getOutputStream());
-            Long reportTime = System.currentTimeMillis() - reportStart;
-            Map<String, String> map = getReportInformation(request);
-            doAsyncSearchReport(map.get("ip-address"), waitingTime, reportTime, pages, map.get("user-agent"));
-        } catch (RuntimeException ex) {
-            logger.error("Could not generate PDF document for " + event.getStId(), ex);
-        } finally {
-            synchronized (REPORT_SEMAPHORE) {
-                REPORT_COUNT--;
-                REPORT_SEMAPHORE.notify();
+        EventPdfManager.Job job = eventPdfManager.submit(event.getStId(), args, analysisResult, cacheKey);
+        Map<String, String> map = ExportReporter.getClientInformation(request);
+        // Cached documents are reported when they are sent
+        job.getFuture().thenAccept(j -> {
+            if (j.getState() == EventPdfManager.State.FINISHED && !j.isCached()) {
+                report(map, j.getWaitingTime(), j.getReportTime(), j.getPages(), false);
             }
+        });
+        return job;
+    }
+
+    private EventPdfManager.Job getJob(String id) {
+        EventPdfManager.Job job = eventPdfManager.getJob(id);
+        if (job == null) throw new NotFoundException(String.format("Job '%s' does not exist or has expired", id));
+        return job;
+    }
+
+    private ResponseEntity<StreamingResponseBody> getDocument(EventPdfManager.Job job, String contextPath, Map<String, String> map) {
+        switch (job.getState()) {
+            case FINISHED:
+                File file = job.getFile();
+                if (!file.exists()) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .contentType(MediaType.APPLICATION_JSON_UTF8)
+                            .body(json(getStatus(job, contextPath)));
+                }
+                StreamingResponseBody body = out -> {
+                    long start = System.currentTimeMillis();
+                    PdfCache.transfer(file, out);
+                    if (job.isCached()) {
+                        Integer pages = job.getPages() > 0 ? job.getPages() : null;
+                        report(map, 0L, System.currentTimeMillis() - start, pages, true);
+                    }
+                };
+                return ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType("application/pdf"))
+                        .contentLength(file.length())
+                        .body(body);
+            case FAILED:
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .body(json(getStatus(job, contextPath)));
+            default:
+                return getAccepted(job, contextPath).body(json(getStatus(job, contextPath)));
         }
     }
 
+    /**
+     * @return the headers of an answer with the status of a job that is still running (the body is to be set)
+     */
+    private ResponseEntity.BodyBuilder getAccepted(EventPdfManager.Job job, String contextPath) {
+        String location = getJobUrl(job, contextPath);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.ACCEPTED)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header("Location", location);
+        long eta = eventPdfManager.getEta(job);
+        if (eta > 0) builder.header("Retry-After", String.valueOf(Math.max(1L, eta / 1000)));
+        return builder;
+    }
+
+    private static StreamingResponseBody json(Object value) {
+        return out -> MAPPER.writeValue(out, value);
+    }
+
+    private Map<String, Object> getStatus(EventPdfManager.Job job, String contextPath) {
+        Map<String, Object> rtn = eventPdfManager.getStatus(job);
+        rtn.put("status", getJobUrl(job, contextPath));
+        if (job.getState() == EventPdfManager.State.FINISHED) rtn.put("download", getJobUrl(job, contextPath) + ".pdf");
+        return rtn;
+    }
+
+    private String getJobUrl(EventPdfManager.Job job, String contextPath) {
+        return contextPath + "/exporter/document/job/" + job.getId();
+    }
+
     private int getLevel(int level){
         if (level < 0) return 0;
         if (level > MAX_LEVEL) return MAX_LEVEL;
         return level;
     }
 
-    private void doAsyncSearchReport(String ip, Long waitingTime, Long reportTime, Integer pages, String userAgent) {
-        new Thread(() -> report(ip, waitingTime, reportTime, pages, userAgent), "EventPDFWaitingReportThread").start();
+    private void report(Map<String, String> map, Long waitingTime, Long reportTime, Integer pages, Boolean cached) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("ip", map.get("ip-address"));
+        params.put("waitingTime", String.valueOf(waitingTime));
+        params.put("reportTime", String.valueOf(reportTime));
+        if (pages != null) params.put("pages", String.valueOf(pages));
+        params.put("cached", String.valueOf(cached));
+        params.put("agent", map.get("user-agent"));
+        exportReporter.report("event/pdf/waiting", params);
     }
 
     /**
@@ -176,55 +337,6 @@ public class EventPdfController {
         return rtn;
     }
 
-    private void report(String ip, Long waitingTime, Long reportTime, Integer pages, String userAgent) {
-        try {
-            CredentialsProvider provider = new BasicCredentialsProvider();
-            UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(reportUser, reportPassword);
-            provider.setCredentials(AuthScope.ANY, credentials);
-            CloseableHttpClient client = HttpClients.custom().setDefaultCredentialsProvider(provider).build();
-            URIBuilder uriBuilder = new URIBuilder("http://localhost:8080/report/event/pdf/waiting");
-            List<NameValuePair> params = new ArrayList<>();
-            params.add(new BasicNameValuePair("ip", ip));
-            params.add(new BasicNameValuePair("waitingTime", String.valueOf(waitingTime)));
-            params.add(new BasicNameValuePair("reportTime", String.valueOf(reportTime)));
-            params.add(new BasicNameValuePair("pages", String.valueOf(pages)));
-            params.add(new BasicNameValuePair("agent", userAgent));
-            uriBuilder.addParameters(params);
-
-            HttpGet httpGet = new HttpGet(uriBuilder.toString());
-            CloseableHttpResponse response = client.execute(httpGet);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != 200) {
-                logger.error("[REP001] The url {} returned the code {} and the report hasn't been created.", uriBuilder.toString(), statusCode);
-            }
-            client.close();
-        } catch (ConnectException e) {
-            logger.error("[REP002] Report service is unavailable");
-        } catch (IOException | URISyntaxException e) {
-            logger.error("[REP003] An unexpected error has occurred when saving a report");
-        }
-    }
-
-    /**
-     * Extra information to be sent to report service in order to store potential target
-     */
-    private Map<String, String> getReportInformation(HttpServletRequest request) {
-        if (request == null) return null;
-
-        Map<String, String> result = new HashMap<>();
-        result.put("user-agent", request.getHeader("User-Agent"));
-        String remoteAddr = request.getHeader("X-FORWARDED-FOR"); // Client IP
-        if (!StringUtils.isEmpty(remoteAddr)) {
-            // The general format of the field is: X-Forwarded-For: client, proxy1, proxy2 ... we only want the client
-            remoteAddr = new StringTokenizer(remoteAddr, ",").nextToken().trim();
-        } else {
-            remoteAddr = request.getRemoteAddr();
-        }
-
-        result.put("ip-address", remoteAddr);
-        return result;
-    }
-
     @Autowired
     public void setDos(DatabaseObjectService dos) {
         this.dos = dos;
@@ -236,8 +348,18 @@ public class EventPdfController {
     }
 
     @Autowired
-    public void setEventExporter(EventExporter eventExporter) {
-        this.eventExporter = eventExporter;
+    public void setEventPdfManager(EventPdfManager eventPdfManager) {
+        this.eventPdfManager = eventPdfManager;
+    }
+
+    @Autowired
+    public void setPdfCache(PdfCache pdfCache) {
+        this.pdfCache = pdfCache;
+    }
+
+    @Autowired
+    public void setExportReporter(ExportReporter exportReporter) {
+        this.exportReporter = exportReporter;
     }
 
     @Autowired
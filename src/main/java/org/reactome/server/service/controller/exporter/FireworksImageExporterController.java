@@ -1,21 +1,21 @@
 package org.reactome.server.service.controller.exporter;
 
 import io.swagger.annotations.*;
-import org.apache.batik.transcoder.TranscoderException;
 import org.reactome.server.graph.domain.model.Species;
 import org.reactome.server.graph.service.SpeciesService;
 import org.reactome.server.search.exception.SolrSearcherException;
 import org.reactome.server.service.exception.FireworksExporterException;
+import org.reactome.server.service.manager.FireworksManager;
 import org.reactome.server.service.manager.SearchManager;
-import org.reactome.server.tools.fireworks.exporter.FireworksExporter;
-import org.reactome.server.tools.fireworks.exporter.common.analysis.exception.AnalysisServerError;
 import org.reactome.server.tools.fireworks.exporter.common.api.FireworkArgs;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Antonio Fabregat (fabregat@ebi.ac.uk)
@@ -26,8 +26,7 @@ import java.util.List;
 @RequestMapping("/exporter")
 public class FireworksImageExporterController {
 
-    private FireworksExporter fireworksExporter;
-
+    private FireworksManager fireworksManager;
     private SpeciesService speciesService;
     private SearchManager searchManager;
 
@@ -69,7 +68,7 @@ public class FireworksImageExporterController {
                              @ApiParam(value = "Set to 'true' to overlay analysis coverage values")
                             @RequestParam(value = "coverage", required = false, defaultValue = "false") Boolean coverage,
 
-                            HttpServletResponse response) {
+                            HttpServletResponse response) throws IOException {
 
         Species s = speciesService.getSpecies(species);
         if (s == null) throw new FireworksExporterException(String.format("'%s' is not a species", species));
@@ -96,20 +95,22 @@ public class FireworksImageExporterController {
             }
         }
 
-        try {
-            String type = ext.equalsIgnoreCase("svg") ? "svg+xml" : ext.toLowerCase();
-            response.addHeader("Content-Type", "image/" + type);
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + s.getDisplayName() + "." +  ext + "\"");
-            fireworksExporter.render(args, response.getOutputStream());
-        } catch (IOException | AnalysisServerError | TranscoderException e) {
-            e.printStackTrace();
-        }
+        String key = fireworksManager.getKey(s.getDisplayName(), ext, sel, flg, flgInteractors, title, quality, margin, profile, token, resource, expColumn, coverage);
+        String type = ext.equalsIgnoreCase("svg") ? "svg+xml" : ext.toLowerCase();
+        response.addHeader("Content-Type", "image/" + type);
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + s.getDisplayName() + "." +  ext + "\"");
+        fireworksManager.render(s.getDisplayName(), args, key, response.getOutputStream());
+    }
 
+    @ApiIgnore
+    @RequestMapping(value = "/fireworks/metrics", method = RequestMethod.GET, produces = "application/json")
+    public Map<String, Object> getMetrics() {
+        return fireworksManager.getMetrics();
     }
 
     @Autowired
-    public void setFireworksExporter(FireworksExporter fireworksExporter) {
-        this.fireworksExporter = fireworksExporter;
+    public void setFireworksManager(FireworksManager fireworksManager) {
+        this.fireworksManager = fireworksManager;
     }
 
     @Autowired
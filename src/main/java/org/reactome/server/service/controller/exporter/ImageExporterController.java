@@ -11,6 +11,9 @@ import org.reactome.server.search.exception.SolrSearcherException;
 import org.reactome.server.service.exception.DiagramExporterException;
 import org.reactome.server.service.exception.NotFoundException;
 import org.reactome.server.service.manager.SearchManager;
+import org.reactome.server.service.utils.DiagramCache;
+import org.reactome.server.service.utils.RasterAdmissionScheduler;
+import org.reactome.server.service.utils.RasterCache;
 import org.reactome.server.tools.diagram.data.graph.Graph;
 import org.reactome.server.tools.diagram.data.layout.Diagram;
 import org.reactome.server.tools.diagram.exporter.common.analysis.AnalysisException;
@@ -26,11 +29,16 @@ import org.reactome.server.tools.reaction.exporter.layout.model.Layout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
+import springfox.documentation.annotations.ApiIgnore;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Antonio Fabregat (fabregat@ebi.ac.uk)
@@ -43,15 +51,21 @@ public class ImageExporterController {
 
     private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
 
-    private static final Object RASTER_SEMAPHORE = new Object();
-    private static final int MAX_RASTER_SIZE = 120000000; //60000000;
-    private static int CURRENT_RASTER_SIZE = 0;
-
     private DatabaseObjectService databaseObjectService;
     private DiagramService diagramService;
     private RasterExporter rasterExporter;
     private ReactionExporter reactionExporter;
     private SearchManager searchManager;
+    private RasterAdmissionScheduler rasterAdmissionScheduler;
+    private RasterCache rasterCache;
+    private DiagramCache diagramCache;
+
+    @Value("${ehld.folder}")
+    private String ehldFolder;
+
+    // Addresses of the proxies in front of the service, the only ones whose X-Forwarded-For is trusted
+    @Value("${raster.trusted.proxies:}")
+    private String trustedProxies;
 
     @ApiOperation(
             value = "Exports a given pathway diagram to the specified image format (png, jpg, jpeg, svg, gif)",
@@ -98,6 +112,7 @@ public class ImageExporterController {
                              @ApiParam(value = "Expression column. When the token is associated to an expression analysis, this parameter allows specifying the expression column for the overlay")
                             @RequestParam(value = "expColumn", required = false) Integer expColumn,
 
+                            HttpServletRequest request,
                             HttpServletResponse response) throws AnalysisException, EhldException, TranscoderException, DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramExporterException {
 
         DiagramResult result = diagramService.getDiagramResult(identifier);
@@ -107,21 +122,29 @@ public class ImageExporterController {
         //NO PDF for the time being
         if (ext.equalsIgnoreCase("pdf")) throw new IllegalArgumentException("Unsupported file extension pdf");
 
-        int size = result.getSize() * (int) Math.ceil(quality * 0.3);
+        long size = result.getSize() * (long) Math.ceil(quality * 0.3);
         boolean isSVG = ext.equalsIgnoreCase("svg");
+
+        List<String> toSelect = result.getEvents();
+        if (sel != null) toSelect.addAll(sel);
+
+        //Analysis results are not cached (the token content is not part of the key)
+        String key = token == null ? rasterCache.getDiagramKey(result.getDiagramStId(), ext, toSelect, flg, flgInteractors, title, quality, ehld, margin, diagramProfile, analysisProfile, resource, expColumn) : null;
+        RasterAdmissionScheduler.Permit permit = null;
         try {
-            if (!isSVG) {
-                synchronized (RASTER_SEMAPHORE) {
-                    while ((CURRENT_RASTER_SIZE + size) >= MAX_RASTER_SIZE) RASTER_SEMAPHORE.wait();
-                    CURRENT_RASTER_SIZE += size;
-                }
-            }
+            String type = isSVG ? "svg+xml" : ext.toLowerCase();
+            if (key != null && rasterCache.serve(key, () -> {
+                response.addHeader("Content-Type", "image/" + type);
+                return response.getOutputStream();
+            })) return;
+
+            //Raster images take memory proportional to their size, SVG is not limited
+            if (!isSVG) permit = rasterAdmissionScheduler.acquire(getClientAddress(request), size);
+            //Only set once admitted, so a rejection is not reported as an image
+            response.addHeader("Content-Type", "image/" + type);
 
             final RasterArgs args = new RasterArgs(result.getDiagramStId(), ext);
             args.setProfiles(new ColorProfiles(diagramProfile, analysisProfile, null));
-
-            List<String> toSelect = result.getEvents();
-            if (sel != null) toSelect.addAll(sel);
             args.setSelected(toSelect);
 
             if (flg != null && !flg.isEmpty()) {
@@ -140,23 +163,41 @@ public class ImageExporterController {
             args.setResource(resource);
             args.setColumn(expColumn);
 
-            String type = isSVG ? "svg+xml" : ext.toLowerCase();
-            response.addHeader("Content-Type", "image/" + type);
-            rasterExporter.export(args, response.getOutputStream());
+            if (key == null) {
+                rasterExporter.export(args, response.getOutputStream());
+            } else {
+                //The shared parsed diagram is used unless the exporter has to go for the EHLD instead
+                Diagram diagram = ehld && hasEhld(result.getDiagramStId()) ? null : diagramCache.getDiagram(result.getDiagramStId());
+                Graph graph = diagram != null ? diagramCache.getGraph(result.getDiagramStId()) : null;
+                File rendered = rasterCache.createTempFile();
+                try {
+                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(rendered))) {
+                        if (graph != null) {
+                            rasterExporter.export(diagram, graph, args, null, os);
+                        } else {
+                            rasterExporter.export(args, os);
+                        }
+                    }
+                    rasterCache.store(key, rendered, response.getOutputStream());
+                } finally {
+                    Files.deleteIfExists(rendered.toPath());
+                }
+            }
         } catch (IndexOutOfBoundsException e) { //When the output stream is closed, it throws this exception
             //Nothing here
         } catch (InterruptedException | IOException e) {
             throw new RuntimeException(e.getMessage()); //This won't generate a 400, but a 500 instead (@see GlobalExceptionHandler.handleUnclassified)
         } finally {
-            if (!isSVG) {
-                synchronized (RASTER_SEMAPHORE) {
-                    CURRENT_RASTER_SIZE -= size;
-                    RASTER_SEMAPHORE.notify();
-                }
-            }
+            if (permit != null) permit.close();
         }
     }
 
+    @ApiIgnore
+    @RequestMapping(value = "/diagram/admission", method = RequestMethod.GET, produces = "application/json")
+    public Map<String, Number> diagramAdmissionMetrics() {
+        return rasterAdmissionScheduler.getMetrics();
+    }
+
     @ApiOperation(
             value = "Exports a given reaction to the specified image format (png, jpg, jpeg, svg, gif)",
             notes = "This method accepts identifiers for <a href=\"/content/schema/ReactionLikeEvent\" target=\"_blank\">ReactionLikeEvent class</a> instances.",
@@ -204,6 +245,16 @@ public class ImageExporterController {
         //NO PDF for the time being
         if(ext.equalsIgnoreCase("pdf")) throw new IllegalArgumentException("Unsupported file extension pdf");
 
+        //Analysis results are not cached (the token content is not part of the key)
+        String key = token == null ? rasterCache.getReactionKey(rle.getStId(), ext, sel, flg, flgInteractors, title, quality, margin, diagramProfile, analysisProfile, resource, expColumn) : null;
+        String type = ext.equalsIgnoreCase("svg") ? "svg+xml" : ext.toLowerCase();
+        try {
+            response.addHeader("Content-Type", "image/" + type);
+            if (key != null && rasterCache.serve(key, response.getOutputStream())) return;
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage()); //This won't generate a 400, but a 500 instead (@see GlobalExceptionHandler.handleUnclassified)
+        }
+
         Layout layout = reactionExporter.getReactionLayout(rle);
         Diagram diagram = reactionExporter.getReactionDiagram(layout);
         Graph graph = reactionExporter.getReactionGraph(rle, layout);
@@ -228,14 +279,51 @@ public class ImageExporterController {
         args.setWriteTitle(title);
 
         try {
-            String type = ext.equalsIgnoreCase("svg") ? "svg+xml" : ext.toLowerCase();
-            response.addHeader("Content-Type", "image/" + type);
-            rasterExporter.export(diagram, graph, args, null ,response.getOutputStream());
+            if (key == null) {
+                rasterExporter.export(diagram, graph, args, null ,response.getOutputStream());
+            } else {
+                File rendered = rasterCache.createTempFile();
+                try {
+                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(rendered))) {
+                        rasterExporter.export(diagram, graph, args, null, os);
+                    }
+                    rasterCache.store(key, rendered, response.getOutputStream());
+                } finally {
+                    Files.deleteIfExists(rendered.toPath());
+                }
+            }
         } catch (IOException | TranscoderException | AnalysisException e) {
             throw new RuntimeException(e.getMessage()); //This won't generate a 400, but a 500 instead (@see GlobalExceptionHandler.handleUnclassified)
         }
     }
 
+    private boolean hasEhld(String stId) {
+        return new File(ehldFolder, stId + ".svg").exists();
+    }
+
+    /**
+     * The client address is used to limit the raster exports per client, so it cannot be taken from
+     * a header the client can set. Only the address appended by a trusted proxy (the last one) is used
+     */
+    private String getClientAddress(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-FORWARDED-FOR");
+        if (forwarded != null && !forwarded.trim().isEmpty() && isTrustedProxy(remoteAddr)) {
+            // The general format of the field is: X-Forwarded-For: client, proxy1, proxy2 ... and the trusted proxy appends the last one
+            String[] hops = forwarded.split(",");
+            String client = hops[hops.length - 1].trim();
+            if (!client.isEmpty()) return client;
+        }
+        return remoteAddr;
+    }
+
+    private boolean isTrustedProxy(String address) {
+        for (String proxy : trustedProxies.split(",")) {
+            if (!proxy.trim().isEmpty() && proxy.trim().equals(address)) return true;
+        }
+        return false;
+    }
+
     private ReactionLikeEvent getReactionLikeEvent(String id){
         ReactionLikeEvent rle;
         try {
@@ -272,6 +360,21 @@ public class ImageExporterController {
         this.searchManager = searchManager;
     }
 
+    @Autowired
+    public void setRasterAdmissionScheduler(RasterAdmissionScheduler rasterAdmissionScheduler) {
+        this.rasterAdmissionScheduler = rasterAdmissionScheduler;
+    }
+
+    @Autowired
+    public void setRasterCache(RasterCache rasterCache) {
+        this.rasterCache = rasterCache;
+    }
+
+    @Autowired
+    public void setDiagramCache(DiagramCache diagramCache) {
+        this.diagramCache = diagramCache;
+    }
+
     @Autowired
     public void setSchemaService(SchemaService schemaService) {
         ReactomeCompartmentFactory.setSchemaService(schemaService);
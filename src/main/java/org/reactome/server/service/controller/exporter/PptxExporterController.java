@@ -59,7 +59,7 @@ public class PptxExporterController {
             @ApiResponse(code = 503, message = "Service was unable to export to Power Point.")
     })
     @RequestMapping(value = "/diagram/{identifier}" + PPT_FILE_EXTENSION, method = RequestMethod.GET)
-    public synchronized void diagramPPTX(@ApiParam(value = "Stable Identifier", required = true, defaultValue = "R-HSA-177929")
+    public void diagramPPTX(@ApiParam(value = "Stable Identifier", required = true, defaultValue = "R-HSA-177929")
                                         @PathVariable String identifier,
                                          @ApiParam(value = "Diagram Color Profile", defaultValue = "Modern", allowableValues = "Modern, Standard")
                                         @RequestParam(value = "profile", defaultValue = "Modern", required = false) String colorProfile,
@@ -97,12 +97,10 @@ public class PptxExporterController {
         // when returning a FileSystemResource using Spring, then the file won't be deleted because it still has the
         // reference to the file and then we cannot delete. Writing the file directly in the response allows us to
         // delete only the temporary file.
-        OutputStream out = response.getOutputStream();
-        FileInputStream in = new FileInputStream(pptx);
-        IOUtils.copy(in, out);
-        out.flush();
-        out.close();
-        in.close();
+        try (OutputStream out = response.getOutputStream(); FileInputStream in = new FileInputStream(pptx)) {
+            IOUtils.copy(in, out);
+            out.flush();
+        }
 
         // deleting the file in case it is decorated.
         if (decorator.isDecorated() && !pptx.delete()) {
@@ -118,7 +116,7 @@ public class PptxExporterController {
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @RequestMapping(value = "/reaction/{identifier}.pptx", method = RequestMethod.GET)
-    public synchronized void reactionPPTX(@ApiParam(value = "DbId or StId of the requested pathway or reaction", required = true, defaultValue = "R-HSA-5205682")
+    public void reactionPPTX(@ApiParam(value = "DbId or StId of the requested pathway or reaction", required = true, defaultValue = "R-HSA-5205682")
                                          @PathVariable String identifier,
                                           @ApiParam(value = "Diagram Color Profile", defaultValue = "Modern", allowableValues = "Modern, Standard")
                                          @RequestParam(value = "profile", defaultValue = "Modern", required = false) String colorProfile,
@@ -156,12 +154,10 @@ public class PptxExporterController {
         // when returning a FileSystemResource using Spring, then the file won't be deleted because it still has the
         // reference to the file and then we cannot delete. Writing the file directly in the response allows us to
         // delete only the temporary file.
-        OutputStream out = response.getOutputStream();
-        FileInputStream in = new FileInputStream(pptx);
-        IOUtils.copy(in, out);
-        out.flush();
-        out.close();
-        in.close();
+        try (OutputStream out = response.getOutputStream(); FileInputStream in = new FileInputStream(pptx)) {
+            IOUtils.copy(in, out);
+            out.flush();
+        }
 
         // deleting the file in case it is decorated.
         if (decorator.isDecorated() && !pptx.delete()) {
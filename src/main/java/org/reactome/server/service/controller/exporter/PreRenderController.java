@@ -0,0 +1,66 @@
+package org.reactome.server.service.controller.exporter;
+
+import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.PreRenderManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import springfox.documentation.annotations.ApiIgnore;
+
+import java.util.Map;
+
+/**
+ * Administration of the release-time pre-rendering of the exporter files
+ * <p>
+ * Starting and cancelling are disabled unless prerender.admin is set, since the endpoints are
+ * not authenticated. Otherwise pre-rendering only runs at startup (prerender.startup).
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@ApiIgnore
+@RestController
+@RequestMapping("/exporter/prerender")
+public class PreRenderController {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+
+    @Value("${prerender.admin:false}")
+    private boolean admin;
+
+    private PreRenderManager preRenderManager;
+
+    @RequestMapping(value = "", method = RequestMethod.GET, produces = "application/json")
+    public Map<String, Object> getStatus() {
+        return preRenderManager.getStatus();
+    }
+
+    @RequestMapping(value = "", method = RequestMethod.POST, produces = "application/json")
+    public ResponseEntity<Map<String, Object>> start() {
+        checkAdmin();
+        boolean started = preRenderManager.start();
+        if (started) infoLogger.info("Pre-rendering started on request");
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).body(preRenderManager.getStatus());
+    }
+
+    @RequestMapping(value = "", method = RequestMethod.DELETE, produces = "application/json")
+    public Map<String, Object> cancel() {
+        checkAdmin();
+        preRenderManager.cancel();
+        return preRenderManager.getStatus();
+    }
+
+    private void checkAdmin() {
+        if (!admin) throw new NotFoundException("Pre-rendering administration is not enabled");
+    }
+
+    @Autowired
+    public void setPreRenderManager(PreRenderManager preRenderManager) {
+        this.preRenderManager = preRenderManager;
+    }
+}
@@ -3,15 +3,10 @@ package org.reactome.server.service.controller.exporter;
 import io.swagger.annotations.*;
 import org.apache.commons.io.IOUtils;
 import org.reactome.server.graph.domain.model.Event;
-import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
 import org.reactome.server.graph.service.DatabaseObjectService;
-import org.reactome.server.graph.service.GeneralService;
 import org.reactome.server.service.exception.DiagramExporterException;
-import org.reactome.server.service.exception.MissingSBMLException;
 import org.reactome.server.service.exception.NotFoundException;
 import org.reactome.server.service.manager.ExportManager;
-import org.reactome.server.tools.diagram.exporter.sbgn.SbgnConverter;
-import org.reactome.server.tools.sbml.converter.SbmlConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,7 +17,7 @@ import org.springframework.web.bind.annotation.RestController;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.*;
+import java.io.OutputStream;
 
 /**
  * @author Antonio Fabregat (fabregat@ebi.ac.uk)
@@ -34,12 +29,7 @@ public class SbxxExporterController {
 
     private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
 
-    private static final String SBML_FILE_EXTENSION = ".sbml";
-    private static final String SBGN_FILE_EXTENSION = ".sbgn";
-
-    private GeneralService generalService;
     private DatabaseObjectService databaseObjectService;
-    private AdvancedDatabaseObjectService advancedDatabaseObjectService;
     private ExportManager exportManager;
 
     @ApiOperation(value = "Exports a given pathway or reaction to SBGN")
@@ -53,30 +43,15 @@ public class SbxxExporterController {
                                       @PathVariable String identifier,
                                       HttpServletResponse response) throws Exception {
         Event event = getEvent(identifier);
-        String fileName = event.getStId() + SBGN_FILE_EXTENSION;
+        String fileName = event.getStId() + ExportManager.SBGN_FILE_EXTENSION;
         response.setContentType("application/sbgn+xml");
         response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
         OutputStream out = response.getOutputStream();
-        IOUtils.copy(getSBGN(event, fileName), out);
+        IOUtils.copy(exportManager.getSBGN(event), out);
         out.flush();
         out.close();
     }
 
-    private InputStream getSBGN(Event event, String fileName) throws FileNotFoundException {
-        InputStream sbgn;
-        try {
-            File file = exportManager.getCachedFile(event, fileName);
-            sbgn = new FileInputStream(file);
-            infoLogger.info("Exporting the event {} to SBGN retrieved from previously generated file", event.getStId());
-        } catch (MissingSBMLException | IOException e) {
-            SbgnConverter converter = new SbgnConverter(exportManager.getDiagram(event));
-            sbgn = exportManager.saveSBGN(converter.getSbgn(), fileName);
-            infoLogger.info("Exporting the event {} to SBGN", event.getStId());
-        }
-        return sbgn;
-    }
-
-
     @ApiIgnore //Only kept here to keep backwards compatibility with the previous URI (ATTENTION: to ".xml")
     @RequestMapping(value = "/sbml/{identifier}.xml", method = RequestMethod.GET)
     public synchronized void eventSBMLOld(@PathVariable String identifier, HttpServletResponse response) throws Exception {
@@ -94,32 +69,15 @@ public class SbxxExporterController {
                                       @PathVariable String identifier,
                                       HttpServletResponse response) throws Exception {
         Event event = getEvent(identifier);
-        String fileName = event.getStId() + SBML_FILE_EXTENSION;
+        String fileName = event.getStId() + ExportManager.SBML_FILE_EXTENSION;
         response.setContentType("application/sbml+xml");
         response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
         OutputStream out = response.getOutputStream();
-        IOUtils.copy(getSBML(event, fileName), out);
+        IOUtils.copy(exportManager.getSBML(event), out);
         out.flush();
         out.close();
     }
 
-    private InputStream getSBML(Event event, String fileName) throws FileNotFoundException {
-        InputStream sbml;
-        try {
-            File file = exportManager.getCachedFile(event, fileName);
-            sbml = new FileInputStream(file);
-            infoLogger.info("Exporting the event {} to SBML retrieved from previously generated file", event.getStId());
-        } catch (MissingSBMLException | IOException e) {
-            SbmlConverter converter = new SbmlConverter(event, generalService.getDBInfo().getVersion(), advancedDatabaseObjectService);
-            converter.convert();
-            String content = converter.toString();
-            sbml = exportManager.saveSBML(content, fileName);
-            infoLogger.info("Exporting the event {} to SBML", event.getStId());
-            generalService.clearCache();
-        }
-        return sbml;
-    }
-
     private Event getEvent(String id){
         Event event;
         try {
@@ -131,23 +89,12 @@ public class SbxxExporterController {
         return event;
     }
 
-    @Autowired
-    public void setGeneralService(GeneralService generalService) {
-        this.generalService = generalService;
-    }
-
     @Autowired
     public void setDatabaseObjectService(DatabaseObjectService databaseObjectService) {
         this.databaseObjectService = databaseObjectService;
     }
 
 
-
-    @Autowired
-    public void setAdvancedDatabaseObjectService(AdvancedDatabaseObjectService advancedDatabaseObjectService) {
-        this.advancedDatabaseObjectService = advancedDatabaseObjectService;
-    }
-
     @Autowired
     public void setExportManager(ExportManager exportManager) {
         this.exportManager = exportManager;
@@ -3,16 +3,23 @@ package org.reactome.server.service.controller.graph;
 import io.swagger.annotations.*;
 import org.reactome.server.graph.domain.model.DatabaseObject;
 import org.reactome.server.graph.domain.model.Pathway;
-import org.reactome.server.graph.service.EventsService;
-import org.reactome.server.graph.service.HierarchyService;
 import org.reactome.server.graph.service.helper.PathwayBrowserNode;
 import org.reactome.server.service.exception.ErrorInfo;
 import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.EventAncestorsManager;
+import org.reactome.server.service.manager.HierarchySnapshotManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import springfox.documentation.annotations.ApiIgnore;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -27,13 +34,13 @@ public class EventsController {
 
     private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
 
-    private final HierarchyService eventHierarchyService;
-    private final EventsService eventsService;
+    private final HierarchySnapshotManager hierarchySnapshotManager;
+    private final EventAncestorsManager eventAncestorsManager;
 
     @Autowired
-    public EventsController(HierarchyService eventHierarchyService, EventsService eventsService) {
-        this.eventHierarchyService = eventHierarchyService;
-        this.eventsService = eventsService;
+    public EventsController(HierarchySnapshotManager hierarchySnapshotManager, EventAncestorsManager eventAncestorsManager) {
+        this.hierarchySnapshotManager = hierarchySnapshotManager;
+        this.eventAncestorsManager = eventAncestorsManager;
     }
 
     @ApiOperation(
@@ -50,13 +57,13 @@ public class EventsController {
     @ResponseBody
     public Collection<Collection<Pathway>> getEventAncestors(@ApiParam(value = "The event for which the ancestors are requested", defaultValue = "R-HSA-5673001", required = true)
                                                              @PathVariable String id) {
-        Collection<Collection<Pathway>> ancestors = eventsService.getEventAncestors(id);
+        Collection<Collection<Pathway>> ancestors = eventAncestorsManager.getEventAncestors(id);
         if (ancestors == null || ancestors.isEmpty()) throw new NotFoundException("No ancestors found for given event: " + id);
         infoLogger.info("Request for all Ancestors of Event with id: {}", id);
         return ancestors;
     }
 
-    @ApiOperation(value = "The full event hierarchy for a given species", notes = "Events (pathways and reactions) in Reactome are organised in a hierarchical structure for every species. By following all 'hasEvent' relationships, this method retrieves the full event hierarchy for any given species. The result is a list of tree structures, one for each TopLevelPathway. Every event in these trees is represented by a PathwayBrowserNode. The latter contains the stable identifier, the name, the species, the url, the type, and the diagram of the particular event.")
+    @ApiOperation(value = "The full event hierarchy for a given species", response = PathwayBrowserNode.class, responseContainer = "List", notes = "Events (pathways and reactions) in Reactome are organised in a hierarchical structure for every species. By following all 'hasEvent' relationships, this method retrieves the full event hierarchy for any given species. The result is a list of tree structures, one for each TopLevelPathway. Every event in these trees is represented by a PathwayBrowserNode. The latter contains the stable identifier, the name, the species, the url, the type, and the diagram of the particular event.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Species does not match with any in current data", response = ErrorInfo.class),
             @ApiResponse(code = 406, message = "Not acceptable according to the accept headers sent in the request", response = ErrorInfo.class),
@@ -64,11 +71,58 @@ public class EventsController {
     })
     @RequestMapping(value = "/eventsHierarchy/{species}", method = RequestMethod.GET, produces = "application/json")
     @ResponseBody
-    public Collection<PathwayBrowserNode> getEventHierarchy(@ApiParam(value = "Allowed species filter: SpeciesName (eg: Homo sapiens) SpeciesTaxId (eg: 9606)", defaultValue = "9606",required = true) @PathVariable String species)  {
-        Collection<PathwayBrowserNode> pathwayBrowserNodes = eventHierarchyService.getEventHierarchy(species);
-        if (pathwayBrowserNodes == null || pathwayBrowserNodes.isEmpty()) throw new NotFoundException("No event hierarchy found for given species: " + species);
+    public ResponseEntity<StreamingResponseBody> getEventHierarchy(@ApiParam(value = "Allowed species filter: SpeciesName (eg: Homo sapiens) SpeciesTaxId (eg: 9606)", defaultValue = "9606",required = true) @PathVariable String species,
+                                                                   @ApiIgnore @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                                                                   @ApiIgnore @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch)  {
+        HierarchySnapshotManager.Snapshot snapshot = hierarchySnapshotManager.getSnapshot(species);
+        if (snapshot == null || snapshot.isEmpty()) throw new NotFoundException("No event hierarchy found for given species: " + species);
         infoLogger.info("Request for full event hierarchy");
-        return pathwayBrowserNodes;
+
+        //The snapshots are kept compressed, so they are sent as they are to the clients accepting gzip
+        boolean gzip = snapshot.isGzip() && acceptsGzip(acceptEncoding);
+        //Streamed answers are not kept by the response cache, so the snapshot revalidates with its own ETag
+        String eTag = snapshot.getETag(gzip);
+        if (ifNoneMatch != null && Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).contains(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(eTag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        Integer length = snapshot.getLength(gzip);
+        if (length != null) builder.contentLength(length);
+        StreamingResponseBody body = out -> snapshot.write(out, gzip);
+        return builder.body(body);
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts gzip, explicitly or through "*", with a quality above 0
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        Double gzip = null, any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().toLowerCase();
+                if (!param.startsWith("q=")) continue;
+                try {
+                    q = Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    q = 0.0; //A malformed quality is not taken as an acceptance
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) gzip = q;
+            else if (name.equals("*")) any = q;
+        }
+        if (gzip != null) return gzip > 0;
+        return any != null && any > 0;
     }
 
 }
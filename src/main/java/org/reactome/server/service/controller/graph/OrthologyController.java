@@ -5,13 +5,17 @@ import org.reactome.server.graph.domain.model.DatabaseObject;
 import org.reactome.server.graph.service.OrthologyService;
 import org.reactome.server.service.exception.ErrorInfo;
 import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.BulkQueryManager;
+import org.reactome.server.service.utils.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * @author Antonio Fabregat <fabregat@ebi.ac.uk>
@@ -27,6 +31,9 @@ public class OrthologyController {
     @Autowired
     private OrthologyService orthologyService;
 
+    @Autowired
+    private BulkQueryManager bulkQueryManager;
+
     @ApiOperation(value = "The orthology for a given event or entity", notes = "Reactome uses the set of manually curated human reactions to computationally infer reactions in twenty evolutionarily divergent eukaryotic species for which high-quality whole-genome sequence data are available, and hence a comprehensive and high-quality set of protein predictions exists. Thus, this method retrieves the orthology for any given event or entity in the specified species. <a href=\"//www.reactome.org/pages/documentation/electronically-inferred-events/\" target=\"_blank\">Here</a> you can find more information about the computationally inferred events.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Species does not match with any in current data", response = ErrorInfo.class),
@@ -45,7 +52,7 @@ public class OrthologyController {
         return orthology.iterator().next(); //here we only retrieve the first one
     }
 
-    @ApiOperation(value = "The orthologies of a given set of events or entities", notes = "Reactome uses the set of manually curated human reactions to computationally infer reactions in twenty evolutionarily divergent eukaryotic species for which high-quality whole-genome sequence data are available, and hence a comprehensive and high-quality set of protein predictions exists. Thus, this method retrieves the orthologies for any given set of events or entities in the specified species. <a href=\"/documentation/inferred-events/\" target=\"_blank\">Here</a> you can find more information about the computationally inferred events.")
+    @ApiOperation(value = "The orthologies of a given set of events or entities", notes = "Reactome uses the set of manually curated human reactions to computationally infer reactions in twenty evolutionarily divergent eukaryotic species for which high-quality whole-genome sequence data are available, and hence a comprehensive and high-quality set of protein predictions exists. Thus, this method retrieves the orthologies for any given set of events or entities in the specified species. <a href=\"/documentation/inferred-events/\" target=\"_blank\">Here</a> you can find more information about the computationally inferred events. Only the first 20 identifiers are processed (a Warning header is added when the list is truncated), so for larger lists please use the bulk version of this method, which sends the orthologies as soon as they are retrieved.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Species does not match with any in current data", response = ErrorInfo.class),
             @ApiResponse(code = 406, message = "Not acceptable according to the accept headers sent in the request", response = ErrorInfo.class),
@@ -55,21 +62,35 @@ public class OrthologyController {
     @ResponseBody
     public Map<Object, DatabaseObject> getOrthologies(@ApiParam(value = "The species for which the orthology is requested", defaultValue = "49633", required = true)
                                          @PathVariable Long speciesId,
-                                         @RequestBody String post) {
-        Collection<Object> ids = new ArrayList<>();
-        for (String id : post.split(",|;|\\n|\\t")) {
-            ids.add(id.trim());
-        }
-        if (ids.size() > 20) ids = ids.stream().skip(0).limit(20).collect(Collectors.toSet());
-        Map<Object, DatabaseObject> orthologies = new HashMap<>();
-        final Map<Object, Collection<DatabaseObject>> aux = orthologyService.getOrthologies(ids, speciesId);
-        aux.keySet().forEach(key -> {
-            try {
-                orthologies.put(key, aux.get(key).iterator().next()); //Only the first one is kept
-            } catch (NullPointerException | NoSuchElementException ex){/* Nothing here */}
-        });
+                                         @RequestBody String post,
+                                          HttpServletResponse response) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post, "/data/orthologies/ids/species/" + speciesId + "/bulk", response);
+        Map<Object, DatabaseObject> orthologies = new LinkedHashMap<>();
+        bulkQueryManager.getOrthologies(ids, speciesId).forEachRemaining(orthologies::putAll);
         if (orthologies.isEmpty()) throw new NotFoundException("No orthologies found");
         infoLogger.info("Request for orthology of Entries with ids: {} and species: {}", ids, speciesId);
         return orthologies;
     }
+
+    @ApiOperation(value = "The orthologies of a (large) set of events or entities as newline delimited JSON", notes = "This method retrieves the orthologies for any given set of events or entities in the specified species. Every line contains an object with a single property, the provided identifier, whose value is its orthology. Lines are sent while they are retrieved, so large lists can be processed without waiting for the whole result. Identifiers without orthology are skipped.")
+    @ApiResponses({
+            @ApiResponse(code = 400, message = "Too many identifiers in the request", response = ErrorInfo.class),
+            @ApiResponse(code = 503, message = "Too many queries running at the moment", response = ErrorInfo.class)
+    })
+    @RequestMapping(value = "/orthologies/ids/species/{speciesId}/bulk", method = RequestMethod.POST, consumes = "text/plain", produces = NdJsonWriter.NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> getOrthologiesBulk(@ApiParam(value = "The species for which the orthology is requested", defaultValue = "49633", required = true)
+                                                                    @PathVariable Long speciesId,
+                                                                    @RequestBody String post) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post);
+        BulkQueryManager.Chunks<Map<Object, DatabaseObject>> chunks = bulkQueryManager.getOrthologies(ids, speciesId);
+        infoLogger.info("Bulk request for orthology of {} Entries and species: {}", ids.size(), speciesId);
+        StreamingResponseBody body = out -> {
+            //Closing the chunks cancels the pending queries when the client disconnects before the end
+            try (BulkQueryManager.Chunks<?> aux = chunks) {
+                NdJsonWriter.write(aux, out);
+            }
+        };
+        return ResponseEntity.ok().contentType(NdJsonWriter.NDJSON).body(body);
+    }
 }
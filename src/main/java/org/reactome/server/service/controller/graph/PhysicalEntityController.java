@@ -8,13 +8,18 @@ import org.reactome.server.graph.service.PhysicalEntityService;
 import org.reactome.server.graph.service.SchemaService;
 import org.reactome.server.service.exception.ErrorInfo;
 import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.SchemaStreamManager;
+import org.reactome.server.service.utils.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import springfox.documentation.annotations.ApiIgnore;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -39,6 +44,9 @@ public class PhysicalEntityController {
     @Autowired
     private SchemaService schemaService;
 
+    @Autowired
+    private SchemaStreamManager schemaStreamManager;
+
     @ApiOperation(
             value = "All other forms of a PhysicalEntity",
             notes = "Retrieves a list containing all other forms of the given PhysicalEntity. These other forms are PhysicalEntities that share the same ReferenceEntity identifier, e.g. PTEN H93R[R-HSA-2318524] and PTEN C124R[R-HSA-2317439] are two forms of PTEN.",
@@ -159,6 +167,17 @@ public class PhysicalEntityController {
         return schemaService.getByClass(ReferenceSequence.class, page, offset);
     }
 
+    @ApiIgnore
+    @ApiOperation(value = "All the ReferenceSequence objects as newline delimited JSON", notes = "It retrieves all the reference sequences for which there are annotations in Reactome, without paging. They are sent (one per line) while they are retrieved")
+    @RequestMapping(value = "/referenceSequences/stream", method = RequestMethod.GET, produces = NdJsonWriter.NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> streamReferenceSequences() {
+        Iterator<Collection<ReferenceSequence>> pages = schemaStreamManager.getByClass(ReferenceSequence.class);
+        infoLogger.info("Request for streaming the total list of ReferenceSequences");
+        StreamingResponseBody body = out -> NdJsonWriter.write(pages, out);
+        return ResponseEntity.ok().contentType(NdJsonWriter.NDJSON).body(body);
+    }
+
     @ApiIgnore
     @ApiOperation(value = "The list of ReferenceSequence identifiers", notes = "It retrieves the list of reference sequences identifiers for which there are annotations in Reactome")
     @RequestMapping(value = "/referenceSequences/identifiers", method = RequestMethod.GET, produces = "text/plain")
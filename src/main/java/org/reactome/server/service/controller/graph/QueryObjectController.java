@@ -11,18 +11,19 @@ import org.reactome.server.service.controller.graph.util.ControllerUtils;
 import org.reactome.server.service.exception.ErrorInfo;
 import org.reactome.server.service.exception.NotFoundException;
 import org.reactome.server.service.exception.NotFoundTextPlainException;
+import org.reactome.server.service.manager.BulkQueryManager;
+import org.reactome.server.service.utils.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import springfox.documentation.annotations.ApiIgnore;
 
+import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * @author Florian Korninger (florian.korninger@ebi.ac.uk)
@@ -42,6 +43,9 @@ public class QueryObjectController {
     @Autowired
     private AdvancedDatabaseObjectService advancedDatabaseObjectService;
 
+    @Autowired
+    private BulkQueryManager bulkQueryManager;
+
     @ApiOperation(value = "An entry in Reactome knowledgebase", notes = "This method queries for an entry in Reactome knowledgebase based on the given identifier, i.e. stable id or database id. It is worth mentioning that the retrieved database object has all its properties and direct relationships (relationships of depth 1) filled.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Identifier does not match with any in current data (depth 1)", response = ErrorInfo.class),
@@ -75,7 +79,7 @@ public class QueryObjectController {
         return ControllerUtils.getProperty(databaseObject, attributeName);
     }
 
-    @ApiOperation(value = "A list of entries in Reactome knowledgebase", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids or a mixture of both. It should be underlined that any duplicated ids are eliminated while only requests containing up to 20 ids are processed.")
+    @ApiOperation(value = "A list of entries in Reactome knowledgebase", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids or a mixture of both. It should be underlined that any duplicated ids are eliminated. Only the first 20 identifiers are processed (a Warning header is added when the list is truncated), so for larger lists please use the /query/ids/bulk method, which sends the entries as soon as they are retrieved.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Identifier does not match with any in current data or invalid attribute name", response = ErrorInfo.class),
             @ApiResponse(code = 500, message = "Internal Server Error", response = ErrorInfo.class)
@@ -83,37 +87,73 @@ public class QueryObjectController {
     @RequestMapping(value = "/query/ids", method = RequestMethod.POST, produces = "application/json", consumes = "text/plain")
     @ResponseBody //TODO: Swagger is not showing the defaultValue
     public Collection<DatabaseObject> findByIds( @ApiParam(value = "A comma separated list of identifiers", defaultValue = "R-HSA-1640170, R-HSA-109581, 199420", required = true)
-                                                @RequestBody String post) {
-        Collection<Object> ids = new ArrayList<>();
-        for (String id : post.split(",|;|\\n|\\t")) {
-            ids.add(id.trim());
-        }
-        if (ids.size() > 20) ids = ids.stream().skip(0).limit(20).collect(Collectors.toSet());
-        Collection<DatabaseObject> databaseObjects = advancedDatabaseObjectService.findByIds(ids, RelationshipDirection.OUTGOING);
-        if (databaseObjects == null || databaseObjects.isEmpty())
+                                                @RequestBody String post,
+                                                 HttpServletResponse response) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post, "/data/query/ids/bulk", response);
+        Collection<DatabaseObject> databaseObjects = new ArrayList<>();
+        bulkQueryManager.findByIds(ids).forEachRemaining(databaseObjects::addAll);
+        if (databaseObjects.isEmpty())
             throw new NotFoundException("Ids: " + ids.toString() + " have not been found in the System");
         infoLogger.info("Request for DatabaseObjects for ids: {}", ids);
         return databaseObjects;
     }
 
-    @ApiOperation(value = "A list of entries with their mapping to the provided identifiers", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids, old stable ids or a mixture of all. It should be underlined that any duplicated ids are eliminated while only requests containing up to 20 ids are processed.<br>This method is particularly useful for users that still rely on the previous version of stable identifiers to query this API. Please note that those are no longer part of the retrieved objects.")
+    @ApiOperation(value = "A list of entries with their mapping to the provided identifiers", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids, old stable ids or a mixture of all. It should be underlined that any duplicated ids are eliminated. Only the first 20 identifiers are processed (a Warning header is added when the list is truncated), so for larger lists please use the /query/ids/map/bulk method, which sends the entries as soon as they are retrieved.<br>This method is particularly useful for users that still rely on the previous version of stable identifiers to query this API. Please note that those are no longer part of the retrieved objects.")
     @RequestMapping(value = "/query/ids/map", method = RequestMethod.POST, produces = "application/json", consumes = "text/plain")
     @ResponseBody //TODO: Swagger is not showing the defaultValue
     public Map<String, DatabaseObject> findByIdsMap( @ApiParam(value = "A comma separated list of identifiers ", defaultValue = "R-HSA-1640170, R-HSA-109581, 199420", required = true)
-                                                    @RequestBody String post) {
-        Collection<String> ids = new ArrayList<>();
-        for (String id : post.split(",|;|\\n|\\t")) ids.add(id.trim());
-        if (ids.size() > 20) ids = ids.stream().skip(0).limit(20).collect(Collectors.toSet());
-        Map<String, DatabaseObject> map = new HashMap<>();
-        for (String id : ids) {
-            DatabaseObject object = advancedDatabaseObjectService.findById(id, RelationshipDirection.OUTGOING);
-            if (object != null) map.put(id, object);
-        }
+                                                    @RequestBody String post,
+                                                     HttpServletResponse response) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post, "/data/query/ids/map/bulk", response);
+        Map<String, DatabaseObject> map = new LinkedHashMap<>();
+        bulkQueryManager.findByIdsMap(ids).forEachRemaining(map::putAll);
         if (map.isEmpty()) throw new NotFoundException("Ids: " + ids.toString() + " have not been found in the System");
         infoLogger.info("Request for DatabaseObjects for ids: {}", ids);
         return map;
     }
 
+    @ApiOperation(value = "A (large) list of entries in Reactome knowledgebase as newline delimited JSON", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids or a mixture of both. Any duplicated ids are eliminated.<br>The entries are sent as newline delimited JSON (one entry per line) while they are retrieved, so large lists can be processed without waiting for the whole result. Identifiers that are not found are skipped.")
+    @ApiResponses({
+            @ApiResponse(code = 400, message = "Too many identifiers in the request", response = ErrorInfo.class),
+            @ApiResponse(code = 503, message = "Too many queries running at the moment", response = ErrorInfo.class)
+    })
+    @RequestMapping(value = "/query/ids/bulk", method = RequestMethod.POST, produces = NdJsonWriter.NDJSON_VALUE, consumes = "text/plain")
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> findByIdsBulk( @ApiParam(value = "A comma separated list of identifiers", defaultValue = "R-HSA-1640170, R-HSA-109581, 199420", required = true)
+                                                               @RequestBody String post) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post);
+        BulkQueryManager.Chunks<Collection<DatabaseObject>> chunks = bulkQueryManager.findByIds(ids);
+        infoLogger.info("Bulk request for DatabaseObjects for {} ids", ids.size());
+        StreamingResponseBody body = out -> {
+            //Closing the chunks cancels the pending queries when the client disconnects before the end
+            try (BulkQueryManager.Chunks<?> aux = chunks) {
+                NdJsonWriter.write(aux, out);
+            }
+        };
+        return ResponseEntity.ok().contentType(NdJsonWriter.NDJSON).body(body);
+    }
+
+    @ApiOperation(value = "A (large) list of entries with their mapping to the provided identifiers as newline delimited JSON", notes = "This method queries for a set of entries in Reactome knowledgebase based on the given list of identifiers. The provided list of identifiers can include stable ids, database ids, old stable ids or a mixture of all. Any duplicated ids are eliminated.<br>Every line contains an object with a single property, the provided identifier, whose value is the corresponding entry. Lines are sent while they are retrieved, so large lists can be processed without waiting for the whole result. Identifiers that are not found are skipped.")
+    @ApiResponses({
+            @ApiResponse(code = 400, message = "Too many identifiers in the request", response = ErrorInfo.class),
+            @ApiResponse(code = 503, message = "Too many queries running at the moment", response = ErrorInfo.class)
+    })
+    @RequestMapping(value = "/query/ids/map/bulk", method = RequestMethod.POST, produces = NdJsonWriter.NDJSON_VALUE, consumes = "text/plain")
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> findByIdsMapBulk( @ApiParam(value = "A comma separated list of identifiers", defaultValue = "R-HSA-1640170, R-HSA-109581, 199420", required = true)
+                                                                  @RequestBody String post) {
+        List<String> ids = bulkQueryManager.getIdentifiers(post);
+        BulkQueryManager.Chunks<Map<String, DatabaseObject>> chunks = bulkQueryManager.findByIdsMap(ids);
+        infoLogger.info("Bulk request for mapped DatabaseObjects for {} ids", ids.size());
+        StreamingResponseBody body = out -> {
+            //Closing the chunks cancels the pending queries when the client disconnects before the end
+            try (BulkQueryManager.Chunks<?> aux = chunks) {
+                NdJsonWriter.write(aux, out);
+            }
+        };
+        return ResponseEntity.ok().contentType(NdJsonWriter.NDJSON).body(body);
+    }
+
     @ApiOperation(value = "More information on an entry in Reactome knowledgebase", notes = "Based on the given identifier, i.e. stable id or database id, this method queries for an entry in Reactome knowledgebase providing more information. In particular, the retrieved database object has all its properties and direct relationships (relationships of depth 1) filled, while it also includes any second level relationships regarding regulations and catalysts.")
     @RequestMapping(value = "/query/enhanced/{id}", method = RequestMethod.GET, produces = "application/json")
     @ResponseBody
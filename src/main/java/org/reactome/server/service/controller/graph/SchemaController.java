@@ -7,12 +7,17 @@ import org.reactome.server.graph.domain.result.SimpleReferenceObject;
 import org.reactome.server.graph.service.SchemaService;
 import org.reactome.server.service.exception.ErrorInfo;
 import org.reactome.server.service.exception.NotFoundException;
+import org.reactome.server.service.manager.SchemaStreamManager;
+import org.reactome.server.service.utils.NdJsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * @author Florian Korninger (florian.korninger@ebi.ac.uk)
@@ -29,6 +34,9 @@ public class SchemaController {
     @Autowired
     private SchemaService schemaService;
 
+    @Autowired
+    private SchemaStreamManager schemaStreamManager;
+
     @ApiOperation(value = "A list of entries corresponding to a given schema class", notes = "This method retrieves the list of entries in Reactome that belong to the specified schema class. Please take into account that if species is specified to filter the results, schema class needs to be an instance of Event or PhysicalEntity. Additionally, paging is required, while a maximum of 25 entries can be returned per request.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Schema class does not match with any current data", response = ErrorInfo.class),
@@ -53,6 +61,23 @@ public class SchemaController {
         return databaseObjects;
     }
 
+    @ApiOperation(value = "All the entries corresponding to a given schema class as newline delimited JSON", notes = "This method retrieves all the entries in Reactome that belong to the specified schema class, without paging. Entries are sent as newline delimited JSON (one entry per line) while they are retrieved, so the whole class can be processed without waiting for (or keeping) the complete result. Entries are the same than the ones of the paginated method, but sorted by their database identifier. Please take into account that if species is specified to filter the results, schema class needs to be an instance of Event or PhysicalEntity.")
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "Schema class does not match with any current data", response = ErrorInfo.class),
+            @ApiResponse(code = 406, message = "Not acceptable according to the accept headers sent in the request", response = ErrorInfo.class),
+            @ApiResponse(code = 500, message = "Internal Server Error", response = ErrorInfo.class)
+    })
+    @RequestMapping(value = "/schema/{className}/stream", method = RequestMethod.GET, produces = NdJsonWriter.NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> streamDatabaseObjectsForClassName(@ApiParam(value = "Schema class name", defaultValue = "ReferenceSequence",required = true) @PathVariable String className,
+                                                                                   @ApiParam(value = "Allowed species filter: SpeciesName (eg: Homo sapiens) SpeciesTaxId (eg: 9606)") @RequestParam(required = false) String species) throws ClassNotFoundException {
+        Iterator<Collection<DatabaseObject>> pages = schemaStreamManager.getByClassName(className, species);
+        if (!pages.hasNext()) throw new NotFoundException("No entries found for class: " + className);
+        infoLogger.info("Request for streaming the objects of class: {}", className);
+        StreamingResponseBody body = out -> NdJsonWriter.write(pages, out);
+        return ResponseEntity.ok().contentType(NdJsonWriter.NDJSON).body(body);
+    }
+
     @ApiOperation(value = "A list of simplified entries corresponding to a given schema class", notes = "This method retrieves the list of simplified entries in Reactome that belong to the specified schema class. A simplified entry may be considered as a minimised version of the full database object that includes its database id, stable id, displayName and type. Please take into account that if species is specified to filter the results, schema class needs to be an instance of Event or PhysicalEntity. Also, paging is required, while a maximum of 20000 entries can be returned per request.")
     @ApiResponses({
             @ApiResponse(code = 404, message = "Schema class does not match with any current data", response = ErrorInfo.class),
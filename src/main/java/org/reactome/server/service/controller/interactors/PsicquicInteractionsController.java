@@ -13,13 +13,20 @@ import org.reactome.server.service.utils.PsicquicResourceCachingScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import psidev.psi.mi.tab.PsimiTabException;
+import springfox.documentation.annotations.ApiIgnore;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
@@ -32,8 +39,8 @@ import java.util.List;
 public class PsicquicInteractionsController {
 
     private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
-    // Number of accessions that will define if we run in one thread or two
-    private static final int THRESHOLD = 10;
+    // Maximum time (in ms) a request waits for all the PSICQUIC answers
+    private static final long ASYNC_TIMEOUT = 60000L;
 
     @Autowired
     private InteractionManager interactions;
@@ -60,6 +67,13 @@ public class PsicquicInteractionsController {
         return resources;
     }
 
+    @ApiIgnore
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> getCacheMetrics() {
+        return interactions.getPsicquicCacheMetrics();
+    }
+
     @ApiOperation(value = "Retrieve clustered interaction, sorted by score, of a given accession by resource.", response = Interactors.class, produces = "application/json")
     @ApiResponses({
             @ApiResponse(code = 406, message = "Not acceptable according to the accept headers sent in the request", response = ErrorInfo.class),
@@ -80,15 +94,27 @@ public class PsicquicInteractionsController {
     })
     @RequestMapping(value = "/molecules/{resource}/details", method = RequestMethod.POST, consumes = "text/plain", produces = "application/json")
     @ResponseBody
-    public Interactors getProteinsDetailsByResource(@ApiParam(value = "PSICQUIC Resource", required = true) @PathVariable String resource,
-                                                    @ApiParam(value = "Accessions", required = true) @RequestBody String proteins) throws PsicquicQueryException, PsimiTabException, PsicquicRegistryClientException, PsicquicResourceNotFoundException {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getProteinsDetailsByResource(@ApiParam(value = "PSICQUIC Resource", required = true) @PathVariable String resource,
+                                                                                              @ApiParam(value = "Accessions", required = true) @RequestBody String proteins) {
         infoLogger.info("Psicquic details query for resource {} by POST", resource);
         // Split param and put into a Set to avoid duplicates
         Collection<String> accs = new HashSet<>();
         for (String id : proteins.split(",|;|\\n|\\t")) {
             accs.add(id.trim());
         }
-        return interactions.getPsicquicProteinsDetails(accs, resource, accs.size() < THRESHOLD ? 1 : 2, true);
+        // The servlet thread is released while the PSICQUIC resource is queried
+        DeferredResult<ResponseEntity<StreamingResponseBody>> rtn = new DeferredResult<>(ASYNC_TIMEOUT);
+        rtn.onTimeout(() -> rtn.setErrorResult(new PsicquicContentException("PSICQUIC resource " + resource + " did not answer in time")));
+        interactions.getPsicquicInteractionsAsync(accs, resource, true).whenComplete((result, t) -> {
+            if (t != null) {
+                rtn.setErrorResult(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            } else {
+                // The entities are converted while they are written
+                StreamingResponseBody body = out -> interactions.writeDetailInteractionResult(result, resource, out);
+                rtn.setResult(ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body));
+            }
+        });
+        return rtn;
     }
 
     @ApiOperation(value = "Retrieve a summary of a given accession by resource", response = Interactors.class, produces = "application/json")
@@ -8,7 +8,10 @@ import org.reactome.server.service.model.interactors.Interactors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -87,9 +90,9 @@ public class StaticInteractionsController {
     })
     @RequestMapping(value = "/molecules/details", method = RequestMethod.POST, consumes = "text/plain", produces = "application/json")
     @ResponseBody
-    public Interactors getProteinsDetailsByAccs(@ApiParam(value = "For paginating the results") @RequestParam(value = "page", required = false, defaultValue = "-1") Integer page,
-                                                @ApiParam(value = "Number of results to be retrieved") @RequestParam(value = "pageSize", required = false, defaultValue = "-1") Integer pageSize,
-                                                @ApiParam(value = "Interactor accessions (or identifiers)", required = true, defaultValue = "O95631") @RequestBody String proteins) {
+    public ResponseEntity<StreamingResponseBody> getProteinsDetailsByAccs(@ApiParam(value = "For paginating the results") @RequestParam(value = "page", required = false, defaultValue = "-1") Integer page,
+                                                                          @ApiParam(value = "Number of results to be retrieved") @RequestParam(value = "pageSize", required = false, defaultValue = "-1") Integer pageSize,
+                                                                          @ApiParam(value = "Interactor accessions (or identifiers)", required = true, defaultValue = "O95631") @RequestBody String proteins) {
         infoLogger.info("Static interaction details query for accessions by POST");
         // Split param and put into a Set to avoid duplicates
         Collection<String> accs = new HashSet<>();
@@ -97,7 +100,9 @@ public class StaticInteractionsController {
             accs.add(id.trim());
         }
 
-        return interactions.getStaticProteinDetails(accs, STATIC_RESOURCE_NAME, page, pageSize);
+        // Entities are written as they are retrieved instead of building the whole response first
+        StreamingResponseBody body = out -> interactions.writeStaticProteinDetails(accs, STATIC_RESOURCE_NAME, page, pageSize, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
     }
 
     @ApiOperation(value = "Retrieve a list of lower level pathways where the interacting molecules can be found", response = Interactors.class, produces = "application/json")
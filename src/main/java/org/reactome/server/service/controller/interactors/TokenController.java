@@ -10,7 +10,10 @@ import org.reactome.server.service.model.interactors.Interactors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashSet;
 import java.util.List;
@@ -45,10 +48,10 @@ public class TokenController {
     })
     @RequestMapping(value = "/{token}", method = RequestMethod.POST, produces = "application/json", consumes = "text/plain")
     @ResponseBody
-    public Interactors getInteractors(@ApiParam(value = "A token associated with a data submission", required = true)
-                                      @PathVariable String token,
-                                      @ApiParam(value = "Interactors accessions", required = true)
-                                      @RequestBody String proteins) throws CustomPsicquicInteractionClusterException {
+    public ResponseEntity<StreamingResponseBody> getInteractors(@ApiParam(value = "A token associated with a data submission", required = true)
+                                                                @PathVariable String token,
+                                                                @ApiParam(value = "Interactors accessions", required = true)
+                                                                @RequestBody String proteins) throws CustomPsicquicInteractionClusterException {
         infoLogger.info("Token {} query has been submitted", token);
         // Split param and put into a Set to avoid duplicates
         Set<String> accs = new HashSet<>();
@@ -56,6 +59,8 @@ public class TokenController {
             accs.add(id.trim());
         }
         Map<String, List<Interaction>> interactionMap = customInteractionManager.getInteractionsByTokenAndProteins(token, accs);
-        return interactionManager.getCustomInteractionResult(interactionMap, CUSTOM_RESOURCE_NAME, token);
+        // The interactions are retrieved beforehand so a missing token is still reported as such
+        StreamingResponseBody body = out -> interactionManager.writeCustomInteractionResult(interactionMap, CUSTOM_RESOURCE_NAME, token, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
     }
 }
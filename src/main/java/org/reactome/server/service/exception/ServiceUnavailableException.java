@@ -0,0 +1,22 @@
+package org.reactome.server.service.exception;
+
+/**
+ * Thrown when a request cannot be served at the moment because of the server load.
+ * The client is told when it is worth trying again.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+    // Seconds to wait before retrying
+    private final long retryAfter;
+
+    public ServiceUnavailableException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
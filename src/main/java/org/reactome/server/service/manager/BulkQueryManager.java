@@ -0,0 +1,279 @@
+package org.reactome.server.service.manager;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.graph.service.OrthologyService;
+import org.reactome.server.graph.service.helper.RelationshipDirection;
+import org.reactome.server.service.exception.BadRequestException;
+import org.reactome.server.service.exception.ServiceUnavailableException;
+import org.reactome.server.service.utils.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Queries for (large) lists of identifiers.
+ * <p>
+ * Lists are split in chunks that are queried through a shared, bounded executor. Every request
+ * has a limited number of identifiers and a limited number of chunks running at the same time,
+ * so a single request cannot take all the threads. Chunks are retrieved in order while iterating,
+ * so the first ones can be sent while the rest are still running.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class BulkQueryManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+
+    // Maximum number of identifiers per request
+    @Value("${query.ids.max:10000}")
+    private int maxIds;
+
+    // Maximum number of identifiers for the methods that send the whole result at once
+    @Value("${query.ids.legacy.max:20}")
+    private int legacyMaxIds;
+
+    // Number of identifiers queried together
+    @Value("${query.ids.chunk:100}")
+    private int chunkSize;
+
+    // Maximum number of chunks of a single request running at the same time
+    @Value("${query.ids.parallel:4}")
+    private int parallel;
+
+    @Value("${query.ids.threads:8}")
+    private int threads;
+
+    @Value("${query.ids.max.queue:500}")
+    private int maxQueue;
+
+    private AdvancedDatabaseObjectService advancedDatabaseObjectService;
+    private OrthologyService orthologyService;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueue), new NamedThreadFactory("CS-BulkQuery"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        infoLogger.info("Content-Service BulkQueryManager stopped");
+    }
+
+    /**
+     * @param post a comma (semicolon, tab or new line) separated list of identifiers
+     * @return the list of identifiers (without duplicates, keeping the given order)
+     * @throws BadRequestException when there are more identifiers than the allowed per request
+     */
+    public List<String> getIdentifiers(String post) {
+        List<String> ids = parse(post);
+        if (ids.size() > maxIds) {
+            throw new BadRequestException(String.format("%d identifiers were provided but only up to %d can be queried per request", ids.size(), maxIds));
+        }
+        return ids;
+    }
+
+    /**
+     * Identifiers for the methods that are not streamed. As they always did, only the first ones are
+     * queried when there are more than the allowed, which is reported in a Warning header
+     *
+     * @param post     a comma (semicolon, tab or new line) separated list of identifiers
+     * @param bulk     the path of the streamed version of the method, for larger lists
+     * @param response the response where the warning is added when the list is truncated
+     * @return the list of identifiers (without duplicates, keeping the given order)
+     */
+    public List<String> getIdentifiers(String post, String bulk, HttpServletResponse response) {
+        List<String> ids = parse(post);
+        if (ids.size() > legacyMaxIds) {
+            response.addHeader("Warning", String.format("199 - \"Only the first %d out of %d identifiers have been queried. Please use %s for larger lists\"", legacyMaxIds, ids.size(), bulk));
+            ids = new ArrayList<>(ids.subList(0, legacyMaxIds));
+        }
+        return ids;
+    }
+
+    private List<String> parse(String post) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String id : post.split(",|;|\\n|\\t")) {
+            String aux = id.trim();
+            if (!aux.isEmpty()) ids.add(aux);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * @return the objects for the given identifiers, chunk by chunk
+     */
+    public Chunks<Collection<DatabaseObject>> findByIds(List<String> ids) {
+        return execute(ids, chunk -> {
+            Collection<DatabaseObject> rtn = advancedDatabaseObjectService.findByIds(new ArrayList<Object>(chunk), RelationshipDirection.OUTGOING);
+            if (rtn == null) return Collections.emptyList();
+            rtn.forEach(o -> o.preventLazyLoading(true));
+            return rtn;
+        });
+    }
+
+    /**
+     * @return the objects mapped to the given identifiers (in the given order), chunk by chunk
+     */
+    public Chunks<Map<String, DatabaseObject>> findByIdsMap(List<String> ids) {
+        return execute(ids, chunk -> {
+            Map<String, DatabaseObject> found = new HashMap<>();
+            Collection<DatabaseObject> objects = advancedDatabaseObjectService.findByIds(new ArrayList<Object>(chunk), RelationshipDirection.OUTGOING);
+            if (objects != null) {
+                for (DatabaseObject object : objects) {
+                    found.put(object.getDbId().toString(), object);
+                    if (object.getStId() != null) found.put(object.getStId(), object);
+                }
+            }
+            Map<String, DatabaseObject> rtn = new LinkedHashMap<>();
+            for (String id : chunk) {
+                DatabaseObject object = found.get(id);
+                //Old stable identifiers (or versioned ones) are not matched by the bulk query
+                if (object == null) object = advancedDatabaseObjectService.findById(id, RelationshipDirection.OUTGOING);
+                if (object != null) {
+                    object.preventLazyLoading(true);
+                    rtn.put(id, object);
+                }
+            }
+            return rtn;
+        });
+    }
+
+    /**
+     * @return the orthology (only the first one) of the given identifiers in the species, chunk by chunk
+     */
+    public Chunks<Map<Object, DatabaseObject>> getOrthologies(List<String> ids, Long speciesId) {
+        return execute(ids, chunk -> {
+            Map<Object, DatabaseObject> rtn = new LinkedHashMap<>();
+            Map<Object, Collection<DatabaseObject>> orthologies = orthologyService.getOrthologies(new ArrayList<Object>(chunk), speciesId);
+            if (orthologies == null) return rtn;
+            orthologies.forEach((id, objects) -> {
+                if (objects == null || objects.isEmpty()) return;
+                DatabaseObject object = objects.iterator().next(); //Only the first one is kept
+                object.preventLazyLoading(true);
+                rtn.put(id, object);
+            });
+            return rtn;
+        });
+    }
+
+    /**
+     * Lists of up to one chunk are queried in the calling thread. Larger ones are queried
+     * in the executor, keeping up to "parallel" chunks running ahead of the one being consumed
+     */
+    private <T> Chunks<T> execute(List<String> ids, Function<List<String>, T> query) {
+        if (ids.size() <= chunkSize) {
+            Iterator<T> rtn = Collections.singletonList(query.apply(ids)).iterator();
+            return new Chunks<T>() {
+                @Override
+                public boolean hasNext() {
+                    return rtn.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return rtn.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += chunkSize) {
+            chunks.add(ids.subList(i, Math.min(i + chunkSize, ids.size())));
+        }
+
+        return new Chunks<T>() {
+            private final Deque<Future<T>> running = new ArrayDeque<>();
+            private int next = 0;
+
+            {
+                fill();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !running.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                Future<T> future = running.poll();
+                if (future == null) throw new NoSuchElementException();
+                try {
+                    T rtn = future.get();
+                    fill();
+                    return rtn;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    throw new RuntimeException("The query has been interrupted", e);
+                } catch (ExecutionException e) {
+                    cancel();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+
+            private void fill() {
+                while (next < chunks.size() && running.size() < parallel) {
+                    List<String> chunk = chunks.get(next++);
+                    try {
+                        running.add(executor.submit(() -> query.apply(chunk)));
+                    } catch (RejectedExecutionException e) {
+                        cancel();
+                        throw new ServiceUnavailableException("Too many identifiers are being queried, please try again later", 10);
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                cancel();
+            }
+
+            private void cancel() {
+                running.forEach(f -> f.cancel(true));
+                running.clear();
+                next = chunks.size();
+            }
+        };
+    }
+
+    /**
+     * The result of a query, chunk by chunk. Closing it cancels the chunks that are still
+     * running or pending (i.e. when the client disconnects before the end)
+     */
+    public interface Chunks<T> extends Iterator<T>, AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @Autowired
+    public void setAdvancedDatabaseObjectService(AdvancedDatabaseObjectService advancedDatabaseObjectService) {
+        this.advancedDatabaseObjectService = advancedDatabaseObjectService;
+    }
+
+    @Autowired
+    public void setOrthologyService(OrthologyService orthologyService) {
+        this.orthologyService = orthologyService;
+    }
+}
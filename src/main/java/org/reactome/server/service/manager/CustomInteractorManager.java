@@ -22,26 +22,31 @@ import org.reactome.server.service.exception.RequestEntityTooLargeException;
 import org.reactome.server.service.exception.TokenNotFoundException;
 import org.reactome.server.service.exception.UnprocessableEntityException;
 import org.reactome.server.service.exception.UnsupportedMediaTypeException;
+import org.reactome.server.service.utils.TupleIndex;
 import org.reactome.server.service.utils.TupleManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.commons.CommonsMultipartResolver;
 
 import javax.net.ssl.*;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.net.*;
+import java.security.DigestInputStream;
 import java.security.KeyManagementException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Component
@@ -58,26 +63,122 @@ public class CustomInteractorManager {
     @Autowired
     TupleManager tupleManager;
 
-    private TupleResult getUserDataContainer(String name, String filename, String file) throws ParserException {
+    /**
+     * Tuple uploads currently being parsed and saved, by token
+     */
+    private final ConcurrentMap<String, CompletableFuture<TupleResult>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The data is hashed while it is spooled to a temporary file, so it is never fully kept in memory
+     * and it is only parsed (from the file) when the token has not been stored before.
+     * The token is the MD5 of the name followed by the content.
+     */
+    private TupleResult getUserDataContainer(String name, String filename, InputStream is) throws ParserException {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tuple", ".tmp");
+            String token;
+            try (DigestInputStream dis = new DigestInputStream(is, getTokenDigest(name));
+                 OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                //The content length is not always known beforehand, so the limit is checked while reading
+                long maxSize = multipartResolver.getFileUpload().getSizeMax();
+                long size = IOUtils.copyLarge(dis, os, 0, maxSize < 0 ? Long.MAX_VALUE : maxSize + 1);
+                if (maxSize >= 0 && size > maxSize) throw new RequestEntityTooLargeException();
+                token = toHex(dis.getMessageDigest().digest());
+            }
+            File spooled = tmp;
+            return getUserDataContainer(token, () -> {
+                try (InputStream data = new BufferedInputStream(new FileInputStream(spooled))) {
+                    return ParserUtils.getUserDataContainer(name, filename, data);
+                }
+            });
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new UnprocessableEntityException(); //TODO: Place the right exception here
+        } finally {
+            if (tmp != null && !tmp.delete()) logger.warn("Could not delete the temporary file " + tmp.getName());
+        }
+    }
+
+    /**
+     * Only one parse/save runs per token. Concurrent requests for the same token wait for
+     * the one in progress and get its result.
+     */
+    private TupleResult getUserDataContainer(String token, TupleParser parser) throws ParserException {
+        CompletableFuture<TupleResult> future = new CompletableFuture<>();
+        CompletableFuture<TupleResult> running = inFlight.putIfAbsent(token, future);
+        if (running != null) return await(running);
         try {
-            String raw = name + file;
-            String token = DigestUtils.md5DigestAsHex(raw.getBytes());
             TupleResult result = (TupleResult) tupleManager.readToken(token);
             if (result == null) {
-                InputStream is = IOUtils.toInputStream(file);
                 //We only parse the data the first time it is sent
-                result = ParserUtils.getUserDataContainer(name, filename, is);
+                result = parser.parse();
                 result.getSummary().setToken(token);
                 tupleManager.saveToken(token, result);
+                tupleManager.saveIndex(token, getInteractionIndex(result.getCustomResource()));
             }
+            future.complete(result);
             return result;
-        } catch (IOException | ClassCastException e) {
-            throw new UnprocessableEntityException(); //TODO: Place the right exception here
+        } catch (ClassCastException e) {
+            future.completeExceptionally(e);
+            throw new UnprocessableEntityException();
+        } catch (ParserException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            throw new UnprocessableEntityException();
+        } finally {
+            inFlight.remove(token, future);
         }
     }
 
+    private TupleResult await(CompletableFuture<TupleResult> running) throws ParserException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnprocessableEntityException();
+        } catch (ExecutionException e) {
+            //Same exceptions than the request doing the parsing
+            Throwable cause = e.getCause();
+            if (cause instanceof ParserException) throw (ParserException) cause;
+            if (cause instanceof ClassCastException || cause instanceof IOException) throw new UnprocessableEntityException();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new UnprocessableEntityException();
+        }
+    }
+
+    /**
+     * @return the token for the given name and content
+     */
+    private String getToken(String name, InputStream is) {
+        try (DigestInputStream dis = new DigestInputStream(is, getTokenDigest(name))) {
+            byte[] buffer = new byte[8192];
+            //noinspection StatementWithEmptyBody
+            while (dis.read(buffer) != -1) ;
+            return toHex(dis.getMessageDigest().digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new UnprocessableEntityException();
+        }
+    }
+
+    private MessageDigest getTokenDigest(String name) throws NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(name.getBytes());
+        return md5;
+    }
+
+    private String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     public TupleResult getUserDataContainerFromContent(String name, String input) throws ParserException {
-        return getUserDataContainer(name, null, input);
+        String token = getToken(name, IOUtils.toInputStream(input));
+        return getUserDataContainer(token, () -> ParserUtils.getUserDataContainer(name, null, IOUtils.toInputStream(input)));
     }
 
     public TupleResult getUserDataContainerFromFile(String name, MultipartFile file) throws ParserException {
@@ -89,7 +190,13 @@ public class CustomInteractorManager {
                 }
 
                 try {
-                    return getUserDataContainer(name, file.getOriginalFilename(), IOUtils.toString(file.getInputStream()));
+                    //The uploaded file can be read twice, so it is hashed first to avoid parsing it when sent before
+                    String token = getToken(name, file.getInputStream());
+                    return getUserDataContainer(token, () -> {
+                        try (InputStream is = file.getInputStream()) {
+                            return ParserUtils.getUserDataContainer(name, file.getOriginalFilename(), is);
+                        }
+                    });
                 } catch (IOException e) {
                     throw new UnprocessableEntityException();
                 }
@@ -141,11 +248,7 @@ public class CustomInteractorManager {
                 throw new UnprocessableEntityException();
             }
 
-            try {
-                return getUserDataContainer(name, filename, IOUtils.toString(is));
-            } catch (IOException e) {
-                throw new UnprocessableEntityException();
-            }
+            return getUserDataContainer(name, filename, is);
         }
         throw new UnsupportedMediaTypeException();
     }
@@ -249,6 +352,25 @@ public class CustomInteractorManager {
         return interactions;
     }
 
+    /**
+     * Builds the inverted accession index of a custom resource. Every accession is mapped
+     * to its interactions, already converted and sorted as they are returned to the client
+     */
+    private SortedMap<String, List<Interaction>> getInteractionIndex(CustomResource customResource) {
+        Map<String, Set<CustomInteraction>> byAccession = new HashMap<>();
+        for (CustomInteraction ci : customResource.getCustomInteractionSet()) {
+            if (ci.getInteractorIdA() != null) {
+                byAccession.computeIfAbsent(ci.getInteractorIdA(), k -> new HashSet<>()).add(ci);
+            }
+            if (ci.getInteractorIdB() != null) {
+                byAccession.computeIfAbsent(ci.getInteractorIdB(), k -> new HashSet<>()).add(ci);
+            }
+        }
+        SortedMap<String, List<Interaction>> rtn = new TreeMap<>();
+        byAccession.forEach((acc, set) -> rtn.put(acc, convertCustomInteraction(acc, set)));
+        return rtn;
+    }
+
     /**
      * Of a given token and (list) proteins retrieve all interactions.
      * The token is associated to a data file previously submitted.
@@ -256,6 +378,18 @@ public class CustomInteractorManager {
      * @return for a given pr
      */
     public Map<String, List<Interaction>> getInteractionsByTokenAndProteins(String tokenStr, Set<String> proteins) throws CustomPsicquicInteractionClusterException {
+        /*
+         * Custom tuple tokens are queried in place through their memory mapped index
+         */
+        TupleIndex index = tupleManager.readIndex(tokenStr);
+        if (index != null) {
+            Map<String, List<Interaction>> interactionMap = new HashMap<>();
+            for (String singleAccession : proteins) {
+                interactionMap.put(singleAccession, index.get(singleAccession));
+            }
+            return interactionMap;
+        }
+
         /*
          * Check if token exists in the Repository.
          */
@@ -263,6 +397,8 @@ public class CustomInteractorManager {
         if (token != null) {
             if (token instanceof TupleResult) {
                 TupleResult tupleResult = (TupleResult) token;
+                //Tokens stored without (or with an outdated) index get it now for the next queries
+                tupleManager.saveIndex(tokenStr, getInteractionIndex(tupleResult.getCustomResource()));
                 return getInteractorFromCustomResource(tupleResult.getCustomResource(), proteins);
             } else {
                 CustomPsicquicResource customResource = (CustomPsicquicResource) token;
@@ -272,7 +408,7 @@ public class CustomInteractorManager {
         throw new TokenNotFoundException(tokenStr);
     }
 
-    private Map<String, List<Interaction>> getInteractorFromCustomResource(CustomResource customResource, Set<String> proteins) {
+    Map<String, List<Interaction>> getInteractorFromCustomResource(CustomResource customResource, Set<String> proteins) {
         Map<String, List<Interaction>> interactionMap = new HashMap<>();
         for (String singleAccession : proteins) {
             Set<CustomInteraction> customInteractionSet = new HashSet<>();
@@ -330,4 +466,9 @@ public class CustomInteractorManager {
     private boolean isAcceptedContentType(String contentType) {
         return contentType.contains("text/plain") || contentType.contains("text/csv");
     }
-}
\ No newline at end of file
+
+    @FunctionalInterface
+    private interface TupleParser {
+        TupleResult parse() throws ParserException, IOException;
+    }
+}
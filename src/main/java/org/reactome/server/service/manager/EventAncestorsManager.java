@@ -0,0 +1,184 @@
+package org.reactome.server.service.manager;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.domain.model.Pathway;
+import org.reactome.server.graph.exception.CustomQueryException;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.graph.service.EventsService;
+import org.reactome.server.service.utils.EventGraph;
+import org.reactome.server.service.utils.ResponseCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Answers the ancestors of an event from an in-memory {@link EventGraph} instead of expanding
+ * the paths in the graph database for every request. The database is only queried to retrieve
+ * the events of the resulting paths.
+ * <p>
+ * The graph is built in the background at startup and whenever the database version changes.
+ * Meanwhile (or for identifiers that are not in the graph, i.e. old stable identifiers) the
+ * ancestors are retrieved from the database as before.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class EventAncestorsManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    //Only single column results, so they can be retrieved as strings
+    private static final String EVENTS_QUERY = "" +
+            "MATCH (e:Event) " +
+            "RETURN toString(e.dbId) + ',' + coalesce(e.stId, '') + ',' + CASE WHEN e:TopLevelPathway THEN 'T' ELSE 'F' END";
+
+    private static final String EDGES_QUERY = "" +
+            "MATCH (p:Pathway)-[:hasEvent]->(e:Event) " +
+            "RETURN toString(p.dbId) + ',' + toString(e.dbId)";
+
+    private static final String EVENTS_BY_DBID_QUERY = "" +
+            "MATCH (e:Event) " +
+            "WHERE e.dbId IN {dbIds} " +
+            "RETURN e";
+
+    @Value("${events.graph.enabled:true}")
+    private boolean enabled;
+
+    private AdvancedDatabaseObjectService ados;
+    private EventsService eventsService;
+    private ResponseCache responseCache;
+
+    private volatile EventGraph graph;
+    private volatile Integer version;
+    private boolean building = false;
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        if (enabled) checkVersion();
+    }
+
+    /**
+     * @param id the stId or dbId of an event
+     * @return every path from the event up to a top level pathway (same result than EventsService.getEventAncestors)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Collection<Collection<Pathway>> getEventAncestors(String id) {
+        EventGraph graph = enabled ? checkVersion() : null;
+        int node = graph != null ? graph.indexOf(id) : -1;
+        if (node < 0) return eventsService.getEventAncestors(id);
+
+        List<int[]> paths = graph.getAncestors(node);
+        if (paths.isEmpty()) return null;
+
+        Set<Long> dbIds = new HashSet<>();
+        for (int[] path : paths) {
+            for (int n : path) dbIds.add(graph.getDbId(n));
+        }
+        Map<Long, DatabaseObject> events = new HashMap<>();
+        try {
+            Map<String, Object> params = new HashMap<>();
+            params.put("dbIds", dbIds);
+            for (DatabaseObject event : ados.getCustomQueryResults(DatabaseObject.class, EVENTS_BY_DBID_QUERY, params)) {
+                events.put(event.getDbId(), event);
+            }
+        } catch (CustomQueryException e) {
+            errorLogger.error("The ancestors of " + id + " could not be retrieved from the events graph", e);
+            return eventsService.getEventAncestors(id);
+        }
+
+        Collection<Collection<Pathway>> rtn = new ArrayList<>();
+        for (int[] path : paths) {
+            //As in the database query, the first element is the requested event (not necessarily a pathway)
+            List aux = new ArrayList<>(path.length);
+            for (int n : path) aux.add(events.get(graph.getDbId(n)));
+            rtn.add(aux);
+        }
+        return rtn;
+    }
+
+    /**
+     * @return true when the ancestors are answered from the events graph
+     */
+    boolean isReady() {
+        return enabled && checkVersion() != null;
+    }
+
+    /**
+     * @return the graph for the current database version or null if it is not ready yet
+     */
+    private EventGraph checkVersion() {
+        Integer current = responseCache.getVersion();
+        synchronized (this) {
+            if (!Objects.equals(version, current) && !building) {
+                building = true;
+                graph = null;
+                Thread thread = new Thread(() -> build(current), "CS-EventGraph");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return Objects.equals(version, current) ? graph : null;
+        }
+    }
+
+    private void build(Integer current) {
+        long start = System.currentTimeMillis();
+        EventGraph rtn = null;
+        try {
+            Collection<String> events = ados.getCustomQueryResults(String.class, EVENTS_QUERY, new HashMap<>());
+            long[] dbIds = new long[events.size()];
+            String[] stIds = new String[events.size()];
+            BitSet tlps = new BitSet(events.size());
+            int i = 0;
+            for (String event : events) {
+                String[] fields = event.split(",");
+                dbIds[i] = Long.parseLong(fields[0]);
+                stIds[i] = fields[1].isEmpty() ? null : fields[1];
+                if (fields[2].equals("T")) tlps.set(i);
+                i++;
+            }
+
+            Collection<String> edges = ados.getCustomQueryResults(String.class, EDGES_QUERY, new HashMap<>());
+            long[] pairs = new long[edges.size() * 2];
+            int j = 0;
+            for (String edge : edges) {
+                String[] fields = edge.split(",");
+                pairs[j++] = Long.parseLong(fields[0]);
+                pairs[j++] = Long.parseLong(fields[1]);
+            }
+
+            rtn = new EventGraph(dbIds, stIds, tlps, pairs);
+            infoLogger.info("Events graph for version {} built in {} ms: {} events and {} relationships", current, System.currentTimeMillis() - start, dbIds.length, edges.size());
+        } catch (CustomQueryException | RuntimeException e) {
+            errorLogger.error("The events graph for version " + current + " could not be built", e);
+        } finally {
+            synchronized (this) {
+                building = false;
+                //When it fails, the ancestors keep being retrieved from the database until the next version
+                version = current;
+                graph = rtn;
+            }
+        }
+    }
+
+    @Autowired
+    public void setAdos(AdvancedDatabaseObjectService ados) {
+        this.ados = ados;
+    }
+
+    @Autowired
+    public void setEventsService(EventsService eventsService) {
+        this.eventsService = eventsService;
+    }
+
+    @Autowired
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+}
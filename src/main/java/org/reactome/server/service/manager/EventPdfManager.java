@@ -0,0 +1,342 @@
+package org.reactome.server.service.manager;
+
+import org.apache.commons.io.FileUtils;
+import org.reactome.server.analysis.core.result.AnalysisStoredResult;
+import org.reactome.server.service.exception.ServiceUnavailableException;
+import org.reactome.server.service.utils.NamedThreadFactory;
+import org.reactome.server.service.utils.PdfCache;
+import org.reactome.server.tools.event.exporter.DocumentArgs;
+import org.reactome.server.tools.event.exporter.EventExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Queue of event PDF documents to be generated. Submitting a document returns a job straight away,
+ * a bounded pool of workers generates the documents in order and stores them on disk until they are
+ * downloaded or expire.
+ * <p>
+ * Jobs can be polled for their status (queue position and estimated time) or waited for through
+ * their future, so synchronous clients do not need to keep a servlet thread parked.
+ * <p>
+ * Documents without analysis are kept in the {@link PdfCache}. Cached documents are returned as
+ * finished jobs without going through the queue, and identical requests share the pending job.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class EventPdfManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private static final String JOBS_FOLDER = "pdf-jobs";
+    // Used for the estimations until the first documents have been generated
+    private static final long DEFAULT_GENERATION_TIME = 10000L;
+
+    public enum State {QUEUED, RUNNING, FINISHED, FAILED}
+
+    @Value("${diagram.exporter.temp.folder}")
+    private String diagramExporterTempFolder;
+
+    @Value("${event.pdf.threads:2}")
+    private int threads;
+
+    @Value("${event.pdf.max.queue:100}")
+    private int maxQueue;
+
+    // Time (in ms) a generated document is kept once it has finished
+    @Value("${event.pdf.job.ttl:3600000}")
+    private long jobTtl;
+
+    private EventExporter eventExporter;
+    private PdfCache pdfCache;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService cleaner;
+    private File folder;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    // Pending jobs by cache key
+    private final Map<String, Job> pending = new ConcurrentHashMap<>();
+    private volatile long averageTime = DEFAULT_GENERATION_TIME;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
+        folder = new File(diagramExporterTempFolder + JOBS_FOLDER);
+        //Jobs do not survive a restart, so any document left behind is not reachable anymore
+        if (folder.exists()) FileUtils.cleanDirectory(folder);
+        else Files.createDirectories(folder.toPath());
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(maxQueue), new NamedThreadFactory("CS-EventPdf"));
+        cleaner = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CS-EventPdfCleaner"));
+        cleaner.scheduleWithFixedDelay(this::removeExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        cleaner.shutdownNow();
+        infoLogger.info("Content-Service EventPdfManager stopped");
+    }
+
+    /**
+     * Queues the generation of an event document
+     *
+     * @param identifier     the event the document is about
+     * @param args           the document arguments
+     * @param analysisResult the analysis to overlay (null if none)
+     * @param cacheKey       the key of the document in the PDF cache (null when it cannot be cached)
+     * @return the job in charge of generating the document
+     * @throws ServiceUnavailableException when the queue is full
+     */
+    public Job submit(String identifier, DocumentArgs args, AnalysisStoredResult analysisResult, String cacheKey) {
+        if (cacheKey != null) {
+            File file = pdfCache.getFile(cacheKey);
+            if (file != null) {
+                Job job = new Job(UUID.randomUUID().toString(), identifier, args, null, cacheKey);
+                Integer pages = pdfCache.getPages(cacheKey);
+                job.pages = pages != null ? pages : 0;
+                job.file = file;
+                job.cached = true;
+                job.started = job.finished = job.created;
+                job.state = State.FINISHED;
+                jobs.put(job.id, job);
+                job.future.complete(job);
+                return job;
+            }
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), identifier, args, analysisResult, cacheKey);
+        if (cacheKey != null) {
+            Job running = pending.putIfAbsent(cacheKey, job);
+            if (running != null) return running;
+        }
+        jobs.put(job.id, job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            if (cacheKey != null) pending.remove(cacheKey, job);
+            throw new ServiceUnavailableException("Too many documents are being generated, please try again later", getRetryAfter(maxQueue));
+        }
+        return job;
+    }
+
+    public Job getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the number of jobs ahead of the given one plus one (0 when it is not waiting)
+     */
+    public int getPosition(Job job) {
+        if (job.state != State.QUEUED) return 0;
+        int position = 1;
+        for (Runnable runnable : executor.getQueue()) {
+            if (runnable == job) return position;
+            position++;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the estimated time (in ms) until the document of the job is ready
+     */
+    public long getEta(Job job) {
+        switch (job.state) {
+            case QUEUED:
+                //Every round of the workers takes the average generation time
+                return ((getPosition(job) - 1) / threads + 1) * averageTime + averageTime;
+            case RUNNING:
+                return Math.max(0L, averageTime - (System.currentTimeMillis() - job.started));
+            default:
+                return 0L;
+        }
+    }
+
+    public Map<String, Object> getStatus(Job job) {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        rtn.put("id", job.id);
+        rtn.put("identifier", job.identifier);
+        rtn.put("state", job.state);
+        if (job.state == State.QUEUED) rtn.put("position", getPosition(job));
+        if (job.state == State.QUEUED || job.state == State.RUNNING) rtn.put("eta", getEta(job));
+        if (job.state == State.FINISHED) {
+            rtn.put("pages", job.pages);
+            rtn.put("cached", job.cached);
+        }
+        if (job.state == State.FAILED) rtn.put("error", job.error);
+        rtn.put("waitingTime", job.getWaitingTime());
+        if (job.finished > 0) rtn.put("reportTime", job.getReportTime());
+        return rtn;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        rtn.put("queued", executor.getQueue().size());
+        rtn.put("running", executor.getActiveCount());
+        rtn.put("jobs", jobs.size());
+        rtn.put("averageTime", averageTime);
+        rtn.put("cache", pdfCache.getStatistics());
+        return rtn;
+    }
+
+    /**
+     * @return seconds a client should wait before coming back when the given number of jobs are queued
+     */
+    public long getRetryAfter(int queued) {
+        return Math.max(1L, (queued / threads + 1) * averageTime / 1000);
+    }
+
+    private void run(Job job) {
+        job.started = System.currentTimeMillis();
+        job.state = State.RUNNING;
+        File tmp = null;
+        try {
+            tmp = job.cacheKey != null ? pdfCache.createTempFile() : File.createTempFile(job.id, ".tmp", folder);
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                job.pages = export(job.args, job.analysisResult, os);
+            }
+            if (job.cacheKey != null) {
+                job.file = pdfCache.put(job.cacheKey, tmp);
+                pdfCache.setPages(job.cacheKey, job.pages);
+            } else {
+                File file = new File(folder, job.id + ".pdf");
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                job.file = file;
+            }
+            job.state = State.FINISHED;
+        } catch (Exception e) {
+            errorLogger.error("Could not generate PDF document for " + job.identifier, e);
+            job.error = "Could not generate PDF document for " + job.identifier;
+            job.state = State.FAILED;
+            if (tmp != null) FileUtils.deleteQuietly(tmp);
+        } finally {
+            job.finished = System.currentTimeMillis();
+            job.analysisResult = null;
+            if (job.state == State.FINISHED) averageTime = (averageTime * 4 + job.getReportTime()) / 5;
+            if (job.cacheKey != null) pending.remove(job.cacheKey, job);
+            job.future.complete(job);
+        }
+    }
+
+    /**
+     * Writes the document to the given stream
+     *
+     * @return the number of pages of the document
+     */
+    protected int export(DocumentArgs args, AnalysisStoredResult analysisResult, OutputStream os) throws Exception {
+        return eventExporter.export(args, analysisResult, os);
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> {
+            if (job.finished == 0 || now - job.finished < jobTtl) return false;
+            //Cached documents are managed by the cache
+            if (job.file != null && job.cacheKey == null) FileUtils.deleteQuietly(job.file);
+            return true;
+        });
+    }
+
+    /**
+     * The generation of a document
+     */
+    public class Job implements Runnable {
+        private final String id;
+        private final String identifier;
+        private final DocumentArgs args;
+        private final String cacheKey;
+        private final long created = System.currentTimeMillis();
+        private final CompletableFuture<Job> future = new CompletableFuture<>();
+
+        private volatile AnalysisStoredResult analysisResult;
+        private volatile State state = State.QUEUED;
+        private volatile long started;
+        private volatile long finished;
+        private volatile int pages;
+        private volatile File file;
+        private volatile String error;
+        private volatile boolean cached;
+
+        Job(String id, String identifier, DocumentArgs args, AnalysisStoredResult analysisResult, String cacheKey) {
+            this.id = id;
+            this.identifier = identifier;
+            this.args = args;
+            this.analysisResult = analysisResult;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public void run() {
+            EventPdfManager.this.run(this);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        /**
+         * @return the generated document (null until the job has finished)
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return true when the document was served from the cache instead of being generated
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        public long getWaitingTime() {
+            return (started > 0 ? started : System.currentTimeMillis()) - created;
+        }
+
+        public long getReportTime() {
+            return started > 0 ? (finished > 0 ? finished : System.currentTimeMillis()) - started : 0L;
+        }
+
+        /**
+         * @return a future completed once the job has finished or failed
+         */
+        public CompletableFuture<Job> getFuture() {
+            return future;
+        }
+    }
+
+    @Autowired
+    public void setEventExporter(EventExporter eventExporter) {
+        this.eventExporter = eventExporter;
+    }
+
+    @Autowired
+    public void setPdfCache(PdfCache pdfCache) {
+        this.pdfCache = pdfCache;
+    }
+}
@@ -1,27 +1,30 @@
 package org.reactome.server.service.manager;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.ogm.session.Session;
+import org.neo4j.ogm.session.SessionFactory;
 import org.reactome.server.graph.domain.model.DatabaseObject;
 import org.reactome.server.graph.domain.model.Event;
 import org.reactome.server.graph.domain.model.Pathway;
 import org.reactome.server.graph.domain.model.ReactionLikeEvent;
 import org.reactome.server.graph.domain.result.DiagramResult;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
 import org.reactome.server.graph.service.DatabaseObjectService;
 import org.reactome.server.graph.service.DiagramService;
 import org.reactome.server.graph.service.GeneralService;
 import org.reactome.server.service.controller.exporter.PptxExporterController;
 import org.reactome.server.service.exception.MissingSBMLException;
-import org.reactome.server.tools.diagram.data.DiagramFactory;
-import org.reactome.server.tools.diagram.data.exception.DeserializationException;
+import org.reactome.server.service.utils.DiagramCache;
 import org.reactome.server.tools.diagram.data.layout.Diagram;
 import org.reactome.server.tools.diagram.exporter.common.Decorator;
 import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonDeserializationException;
 import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonNotFoundException;
 import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramProfileException;
 import org.reactome.server.tools.diagram.exporter.common.profiles.service.DiagramExporterService;
+import org.reactome.server.tools.diagram.exporter.sbgn.SbgnConverter;
 import org.reactome.server.tools.reaction.exporter.ReactionExporter;
+import org.reactome.server.tools.sbml.converter.SbmlConverter;
 import org.sbgn.SbgnUtil;
 import org.sbgn.bindings.Sbgn;
 import org.slf4j.Logger;
@@ -30,10 +33,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBException;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Guilherme S Viteri (gviteri@ebi.ac.uk)
@@ -45,51 +55,153 @@ public class ExportManager {
     private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
     private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
 
+    public static final String SBML_FILE_EXTENSION = ".sbml";
+    public static final String SBGN_FILE_EXTENSION = ".sbgn";
+
+    // Parts of the graph below an event walked by the SBML converter. As the converter does, the whole
+    // event hierarchy below the exported event is followed (for a top level pathway that is all its
+    // reactions). Only the participants are bounded: they are at most two steps away from a reaction
+    // (via catalyst activities and regulations) and complexes and sets are expanded up to a fixed depth
+    private static final String[] PREFETCH_QUERIES = {
+            "" +
+                    "MATCH (:Event{stId:{stId}})-[:hasEvent*0..]->(e:Event) " +
+                    "WITH DISTINCT e " +
+                    "MATCH p=(e)-[:hasEvent|input|output|catalystActivity|regulatedBy|compartment|species|literatureReference|summation|disease|goBiologicalProcess]->() " +
+                    "RETURN p",
+            "" +
+                    "MATCH (:Event{stId:{stId}})-[:hasEvent*0..]->(:ReactionLikeEvent)-[:catalystActivity|regulatedBy]->(x) " +
+                    "WITH DISTINCT x " +
+                    "MATCH p=(x)-[:physicalEntity|activity|activeUnit|regulator]->() " +
+                    "RETURN p",
+            "" +
+                    "MATCH (:Event{stId:{stId}})-[:hasEvent*0..]->(:ReactionLikeEvent)-[:input|output|catalystActivity|regulatedBy|physicalEntity|regulator*1..2]->(pe:PhysicalEntity) " +
+                    "WITH DISTINCT pe " +
+                    "MATCH (pe)-[:hasComponent|hasMember|hasCandidate|repeatedUnit*0..10]->(x:PhysicalEntity) " +
+                    "WITH DISTINCT x " +
+                    "MATCH p=(x)-[:hasComponent|hasMember|hasCandidate|repeatedUnit|referenceEntity|compartment|species|hasModifiedResidue|disease]->() " +
+                    "RETURN p"
+    };
+
+    private static final String PREFETCH_EVENT_QUERY = "" +
+            "MATCH (e:Event{stId:{stId}}) " +
+            "RETURN e";
+
     @Value("${diagram.json.folder}")
     private String diagramJsonFolder;
 
     @Value("${diagram.exporter.temp.folder}")
     private String diagramExporterTempFolder;
 
+    @Value("${pptx.max.concurrent:2}")
+    int pptxMaxConcurrent;
+
     private DiagramExporterService diagramExporterService = new DiagramExporterService();
+    // Locks of the PPTX files being generated, removed once nobody waits for them (guarded by itself)
+    final Map<String, PPTXLock> pptxLocks = new HashMap<>();
+    private Semaphore pptxGenerations;
     private GeneralService generalService;
     private DatabaseObjectService databaseObjectService;
+    private AdvancedDatabaseObjectService advancedDatabaseObjectService;
     private DiagramService diagramService;
     private ReactionExporter reactionExporter;
+    private DiagramCache diagramCache;
+    private SessionFactory sessionFactory;
 
     //The reaction will be layed out from the graph database only when object is an instance of 'ReactionLikeEvent'.
     //In any other case, an existing diagram json will be retrieved and converted to PPTX with the original requirements.
-    public File getDiagramPPTX(String stId, String colorProfile, Decorator decorator, HttpServletResponse response) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException {
-        if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
+    public File getDiagramPPTX(String stId, String colorProfile, Decorator decorator, HttpServletResponse response) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException, IOException {
+        File pptx = getDiagramPPTX(stId, colorProfile, decorator);
+        setPPTXHeaders(stId, response);
+        return pptx;
+    }
 
-        File outputFolder = new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + "/pptx/" + colorProfile.toLowerCase());
-        if (!outputFolder.exists()) {
-            infoLogger.debug("Creating the directory tree for storing pptx files");
-            if (!outputFolder.mkdirs())
-                infoLogger.error("Could not create the folder for the given DBVersion and profile");
-        }
+    public File getDiagramPPTX(String stId, String colorProfile, Decorator decorator) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException, IOException {
+        return getPPTX(stId, colorProfile, decorator.isDecorated(), folder -> {
+            Diagram diagram = diagramCache.getDiagram(stId);
+            //When the json cannot be retrieved, the exporter reports why
+            if (diagram == null) return diagramExporterService.exportToPPTX(stId, diagramJsonFolder, colorProfile, folder, decorator);
+            return diagramExporterService.exportToPPTX(diagram, colorProfile, folder, decorator);
+        });
+    }
 
-        String fileName = stId + PptxExporterController.PPT_FILE_EXTENSION;
-        File pptxFile = new File(outputFolder.getAbsolutePath() + "/" + fileName);
+    public File getReactionPPTX(ReactionLikeEvent rle, String colorProfile, Decorator decorator, HttpServletResponse response) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException, IOException {
+        File pptx = getReactionPPTX(rle, colorProfile, decorator);
+        setPPTXHeaders(rle.getStId(), response);
+        return pptx;
+    }
 
-        // The pptx is save in the temp folder using only the StId, then when we write in the response header
-        // we rename it using the [stId] displayName
-        String pptxFileName = getPPTXFileName(stId);
-        if (pptxFile.exists() && !decorator.isDecorated()) { // just return the file previously generated.
+    public File getReactionPPTX(ReactionLikeEvent rle, String colorProfile, Decorator decorator) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException, IOException {
+        return getPPTX(rle.getStId(), colorProfile, decorator.isDecorated(), folder -> {
+            Diagram diagram = reactionExporter.getReactionDiagram(reactionExporter.getReactionLayout(rle));
+            return diagramExporterService.exportToPPTX(diagram, colorProfile, folder, decorator);
+        });
+    }
+
+    /**
+     * Previously generated (undecorated) files are returned without locking. Otherwise the file is generated
+     * in a temporary folder and atomically moved to its final location. Only one generation per stable
+     * identifier and profile runs at a time and the number of concurrent generations is limited.
+     * Decorated files are not kept, so they get a unique name and have to be deleted once used.
+     */
+    File getPPTX(String stId, String colorProfile, boolean decorated, PPTXGenerator generator) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException, IOException {
+        File outputFolder = getPPTXFolder(colorProfile);
+        File pptxFile = new File(outputFolder.getAbsolutePath() + "/" + stId + PptxExporterController.PPT_FILE_EXTENSION);
+        if (pptxFile.exists() && !decorated) { // just return the file previously generated.
             infoLogger.debug("Diagram {} has been generated previously.", pptxFile.getName());
-            response.setContentType("application/vnd.openxmlformats-officedocument.presentationml.presentation");
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + pptxFileName + "\"");
             return pptxFile;
-        } else {
-            infoLogger.debug("Export Diagram {} based on StableId {}", pptxFile.getName(), stId);
-            File newFile = diagramExporterService.exportToPPTX(stId, diagramJsonFolder, colorProfile, outputFolder.getPath(), decorator);
-            response.setContentType("application/vnd.openxmlformats-officedocument.presentationml.presentation");
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + pptxFileName + "\"");
-            return newFile;
         }
+
+        PPTXLock lock = decorated ? null : lockPPTX(pptxFile.getPath());
+        try {
+            if (pptxFile.exists() && !decorated) return pptxFile; // generated while waiting for the lock
+            pptxGenerations.acquire();
+            try {
+                File tmpFolder = Files.createTempDirectory(outputFolder.toPath(), stId + "-").toFile();
+                try {
+                    infoLogger.debug("Export Diagram {} based on StableId {}", pptxFile.getName(), stId);
+                    File generated = generator.export(tmpFolder.getPath());
+                    File target = decorated ? File.createTempFile(stId + "-", PptxExporterController.PPT_FILE_EXTENSION, outputFolder) : pptxFile;
+                    Files.move(generated.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    return target;
+                } finally {
+                    FileUtils.deleteQuietly(tmpFolder);
+                }
+            } finally {
+                pptxGenerations.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PPTX export interrupted");
+        } finally {
+            if (lock != null) unlockPPTX(pptxFile.getPath(), lock);
+        }
+    }
+
+    PPTXLock lockPPTX(String path) {
+        PPTXLock rtn;
+        synchronized (pptxLocks) {
+            rtn = pptxLocks.computeIfAbsent(path, k -> new PPTXLock());
+            rtn.users++;
+        }
+        rtn.lock();
+        return rtn;
+    }
+
+    void unlockPPTX(String path, PPTXLock lock) {
+        lock.unlock();
+        synchronized (pptxLocks) {
+            if (--lock.users == 0) pptxLocks.remove(path);
+        }
+    }
+
+    /**
+     * @return true if the undecorated PPTX for the given stable identifier and profile has already been generated
+     */
+    public boolean hasPPTX(String stId, String colorProfile) {
+        return new File(getPPTXFolder(colorProfile), stId + PptxExporterController.PPT_FILE_EXTENSION).exists();
     }
 
-    public File getReactionPPTX(ReactionLikeEvent rle, String colorProfile, Decorator decorator, HttpServletResponse response) throws DiagramJsonDeserializationException, DiagramProfileException {
+    File getPPTXFolder(String colorProfile) {
         if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
 
         File outputFolder = new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + "/pptx/" + colorProfile.toLowerCase());
@@ -98,27 +210,15 @@ public class ExportManager {
             if (!outputFolder.mkdirs())
                 infoLogger.error("Could not create the folder for the given DBVersion and profile");
         }
+        return outputFolder;
+    }
 
-        String stId = rle.getStId();
-        String fileName = stId + PptxExporterController.PPT_FILE_EXTENSION;
-        File pptxFile = new File(outputFolder.getAbsolutePath() + "/" + fileName);
-
+    private void setPPTXHeaders(String stId, HttpServletResponse response) {
         // The pptx is save in the temp folder using only the StId, then when we write in the response header
         // we rename it using the [stId] displayName
         String pptxFileName = getPPTXFileName(stId);
-        if (pptxFile.exists() && !decorator.isDecorated()) { // just return the file previously generated.
-            infoLogger.debug("Diagram {} has been generated previously.", pptxFile.getName());
-            response.setContentType("application/vnd.openxmlformats-officedocument.presentationml.presentation");
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + pptxFileName + "\"");
-            return pptxFile;
-        } else {
-            infoLogger.debug("Export Diagram {} based on StableId {}", pptxFile.getName(), stId);
-            Diagram diagram = reactionExporter.getReactionDiagram(reactionExporter.getReactionLayout(rle));
-            File newFile = diagramExporterService.exportToPPTX(diagram, colorProfile, outputFolder.getPath(), decorator);
-            response.setContentType("application/vnd.openxmlformats-officedocument.presentationml.presentation");
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + pptxFileName + "\"");
-            return newFile;
-        }
+        response.setContentType("application/vnd.openxmlformats-officedocument.presentationml.presentation");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + pptxFileName + "\"");
     }
 
     /**
@@ -144,19 +244,86 @@ public class ExportManager {
 
 
 
-    public File getCachedFile(Event event, String sbmlFileName) throws MissingSBMLException {
-        if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
+    public InputStream getSBGN(Event event) throws FileNotFoundException {
+        String fileName = event.getStId() + SBGN_FILE_EXTENSION;
+        InputStream sbgn;
+        try {
+            File file = getCachedFile(event, fileName);
+            sbgn = new FileInputStream(file);
+            infoLogger.info("Exporting the event {} to SBGN retrieved from previously generated file", event.getStId());
+        } catch (MissingSBMLException | IOException e) {
+            //The reaction layout queries what it needs by itself, so nothing is prefetched for it
+            SbgnConverter converter = new SbgnConverter(getDiagram(event));
+            sbgn = saveSBGN(converter.getSbgn(), fileName);
+            infoLogger.info("Exporting the event {} to SBGN", event.getStId());
+        }
+        return sbgn;
+    }
 
-        // This folder will be created during release phase, double checking just in case
-        File outputFolder = new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + "/sbml");
-        if (outputFolder.exists()) {
-            File sbml = new File(outputFolder.getAbsolutePath() + "/" + sbmlFileName);
-            if (sbml.exists()) return sbml;
+    public InputStream getSBML(Event event) throws FileNotFoundException {
+        String fileName = event.getStId() + SBML_FILE_EXTENSION;
+        InputStream sbml;
+        try {
+            File file = getCachedFile(event, fileName);
+            sbml = new FileInputStream(file);
+            infoLogger.info("Exporting the event {} to SBML retrieved from previously generated file", event.getStId());
+        } catch (MissingSBMLException | IOException e) {
+            SbmlConverter converter = new SbmlConverter(prefetch(event), generalService.getDBInfo().getVersion(), advancedDatabaseObjectService);
+            converter.convert();
+            String content = converter.toString();
+            sbml = saveSBML(content, fileName);
+            infoLogger.info("Exporting the event {} to SBML", event.getStId());
         }
+        return sbml;
+    }
+
+    /**
+     * Loads the part of the graph below the event walked by the SBML converter in a fixed number of
+     * queries, so it finds it already loaded instead of lazy loading it object by object.
+     * <p>
+     * The queries run in a session of their own, so nothing is kept in the shared one: the
+     * prefetched graph is only reachable from the returned event and is discarded with it once
+     * the conversion is done.
+     *
+     * @return the event with the graph below it loaded (or the given one if it cannot be prefetched)
+     */
+    Event prefetch(Event event) {
+        Session session = sessionFactory.openSession();
+        Map<String, Object> params = new HashMap<>();
+        params.put("stId", event.getStId());
+        try {
+            for (String query : PREFETCH_QUERIES) session.query(DatabaseObject.class, query, params);
+            Event rtn = session.queryForObject(Event.class, PREFETCH_EVENT_QUERY, params);
+            return rtn != null ? rtn : event;
+        } catch (RuntimeException e) {
+            //Not a problem, whatever is missing is lazy loaded by the converters
+            errorLogger.warn("Could not prefetch the graph for " + event.getStId() + ": " + e.getMessage());
+            return event;
+        }
+    }
+
+    /**
+     * @return true if the given SBML or SBGN file has already been generated for the current version
+     */
+    public boolean hasCachedFile(String fileName) {
+        return getCacheFile(fileName).exists();
+    }
+
+    public File getCachedFile(Event event, String sbmlFileName) throws MissingSBMLException {
+        // This folder will be created during release phase, double checking just in case
+        File file = getCacheFile(sbmlFileName);
+        if (file.exists()) return file;
 
         throw new MissingSBMLException(String.format("'%s' file has not been previously generated for '%s'", sbmlFileName, event.getStId()));
     }
 
+    private File getCacheFile(String fileName) {
+        if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
+        // SBGN files are stored in their own folder (see saveSBGN)
+        String type = fileName.endsWith(SBGN_FILE_EXTENSION) ? "/sbgn/" : "/sbml/";
+        return new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + type + fileName);
+    }
+
     public InputStream saveSBML(String sbml, String sbmlFileName) throws FileNotFoundException {
         File outputFolder = new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + "/sbml");
         if (!outputFolder.exists()) {
@@ -168,7 +335,13 @@ public class ExportManager {
         File file = new File(outputFolder.getAbsolutePath() + "/" + sbmlFileName);
         if (!file.exists()) {
             try {
-                FileUtils.writeStringToFile(file, sbml, Charset.defaultCharset());
+                File tmp = File.createTempFile(sbmlFileName + "-", ".tmp", outputFolder);
+                try {
+                    FileUtils.writeStringToFile(tmp, sbml, Charset.defaultCharset());
+                    moveAtomically(tmp, file);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
             } catch (IOException e) {
                 errorLogger.error(e.getMessage());
             }
@@ -189,8 +362,14 @@ public class ExportManager {
         File file = new File(outputFolder.getAbsolutePath() + "/" + sgbnFileName);
         if (!file.exists()) {
             try {
-                SbgnUtil.writeToFile(sbgn, file);
-            } catch (JAXBException e) {
+                File tmp = File.createTempFile(sgbnFileName + "-", ".tmp", outputFolder);
+                try {
+                    SbgnUtil.writeToFile(sbgn, tmp);
+                    moveAtomically(tmp, file);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            } catch (JAXBException | IOException e) {
                 errorLogger.error(e.getMessage());
             }
         } else {
@@ -199,24 +378,41 @@ public class ExportManager {
         return new FileInputStream(file);
     }
 
+    /**
+     * Files are written to a temporary file first and then moved into place, so concurrent
+     * requests (or the pre-rendering) never serve a half-written file
+     */
+    private void moveAtomically(File tmp, File target) throws IOException {
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     public Diagram getDiagram(Event event) {
         if (event instanceof Pathway) {
             DiagramResult result = diagramService.getDiagramResult(event.getStId());
-            String diagram = result.getDiagramStId();
-            try {
-                File aux = new File(diagramJsonFolder + "/" + diagram + ".json");
-                String json = IOUtils.toString(new FileInputStream(aux), Charset.defaultCharset());
-                return DiagramFactory.getDiagram(json);
-            } catch (IOException | DeserializationException e) {
-                errorLogger.error(e.getMessage(), e);
-                return null;
-            }
+            return diagramCache.getDiagram(result.getDiagramStId());
         } else {
             ReactionLikeEvent rle = (ReactionLikeEvent) event;
             return reactionExporter.getReactionDiagram(reactionExporter.getReactionLayout(rle));
         }
     }
 
+    @PostConstruct
+    public void init() {
+        pptxGenerations = new Semaphore(Math.max(1, pptxMaxConcurrent), true);
+    }
+
+    @FunctionalInterface
+    interface PPTXGenerator {
+        File export(String outputFolder) throws DiagramJsonNotFoundException, DiagramJsonDeserializationException, DiagramProfileException;
+    }
+
+    /**
+     * Counts the threads holding or waiting for the lock, so it is removed when the last one leaves
+     */
+    static class PPTXLock extends ReentrantLock {
+        private int users = 0;
+    }
+
     @Autowired
     public void setGeneralService(GeneralService generalService) {
         this.generalService = generalService;
@@ -227,6 +423,11 @@ public class ExportManager {
         this.databaseObjectService = databaseObjectService;
     }
 
+    @Autowired
+    public void setAdvancedDatabaseObjectService(AdvancedDatabaseObjectService advancedDatabaseObjectService) {
+        this.advancedDatabaseObjectService = advancedDatabaseObjectService;
+    }
+
     @Autowired
     public void setDiagramService(DiagramService diagramService) {
         this.diagramService = diagramService;
@@ -236,4 +437,14 @@ public class ExportManager {
     public void setReactionExporter(ReactionExporter reactionExporter) {
         this.reactionExporter = reactionExporter;
     }
+
+    @Autowired
+    public void setDiagramCache(DiagramCache diagramCache) {
+        this.diagramCache = diagramCache;
+    }
+
+    @Autowired
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
 }
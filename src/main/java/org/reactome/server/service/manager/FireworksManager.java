@@ -0,0 +1,238 @@
+package org.reactome.server.service.manager;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.reactome.server.graph.domain.model.Species;
+import org.reactome.server.graph.service.SpeciesService;
+import org.reactome.server.service.exception.FireworksExporterException;
+import org.reactome.server.service.utils.RasterCache;
+import org.reactome.server.tools.fireworks.exporter.FireworksExporter;
+import org.reactome.server.tools.fireworks.exporter.common.analysis.exception.AnalysisServerError;
+import org.reactome.server.tools.fireworks.exporter.common.api.FireworkArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the pathways overview (fireworks) images. Renders without analysis go through the
+ * {@link RasterCache}. The default overview of every species can be rendered in advance, either
+ * in the background at startup (fireworks.warmup) or as part of the {@link PreRenderManager} run,
+ * both through {@link #renderOverview}, so the first requests are served from the cache.
+ * <p>
+ * Rendering errors are propagated to the caller and timings are kept per species.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class FireworksManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    //Same defaults than the exporter endpoint, so the warmed images are the ones served by default
+    private static final Integer QUALITY = 5;
+    private static final Integer MARGIN = 15;
+    private static final String PROFILE = "Copper";
+    private static final String RESOURCE = "total";
+
+    @Value("${fireworks.json.folder}")
+    private String fireworksJsonFolder;
+
+    //On by default, so the overviews are warmed even when the pre-rendering is off (the images it already rendered are skipped)
+    @Value("${fireworks.warmup:true}")
+    private boolean warmup;
+
+    @Value("${fireworks.warmup.formats:png,svg}")
+    private String warmupFormats;
+
+    private FireworksExporter fireworksExporter;
+    private SpeciesService speciesService;
+    private RasterCache rasterCache;
+
+    private final AtomicBoolean warmedUp = new AtomicBoolean(false);
+    private final Map<String, Timings> timings = new ConcurrentHashMap<>();
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        //The event is received once per context
+        if (!warmup || !warmedUp.compareAndSet(false, true)) return;
+        Thread thread = new Thread(this::warmup, "CS-FireworksWarmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the cache key for the given parameters (null when the result should not be cached)
+     */
+    public String getKey(String species, String ext, Collection<String> sel, String flg, Boolean flgInteractors,
+                         Boolean title, Integer quality, Integer margin, String profile,
+                         String token, String resource, Integer expColumn, Boolean coverage) {
+        //Analysis results are not cached (the token content is not part of the key)
+        if (token != null) return null;
+        return rasterCache.getFireworksKey(species, ext, sel, flg, flgInteractors, title, quality, margin, profile, resource, expColumn, coverage);
+    }
+
+    /**
+     * Renders the pathways overview (or sends it from the cache when the key is provided and present)
+     *
+     * @param key the cache key (null when the image should not be cached)
+     * @throws FireworksExporterException when the analysis results cannot be retrieved
+     */
+    public void render(String species, FireworkArgs args, String key, OutputStream out) throws IOException {
+        Timings t = timings.computeIfAbsent(species, s -> new Timings());
+        if (key != null && rasterCache.serve(key, out)) {
+            t.hits.incrementAndGet();
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            if (key == null) {
+                fireworksExporter.render(args, out);
+            } else {
+                File rendered = rasterCache.createTempFile();
+                try {
+                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(rendered))) {
+                        fireworksExporter.render(args, os);
+                    }
+                    rasterCache.store(key, rendered, out);
+                } finally {
+                    Files.deleteIfExists(rendered.toPath());
+                }
+            }
+            t.rendered(System.currentTimeMillis() - start);
+        } catch (AnalysisServerError e) {
+            t.failures.incrementAndGet();
+            throw new FireworksExporterException(String.format("The analysis results for '%s' could not be retrieved", species), e);
+        } catch (TranscoderException e) {
+            t.failures.incrementAndGet();
+            throw new RuntimeException(String.format("The pathways overview of '%s' could not be rendered", species), e);
+        } catch (IOException e) {
+            t.failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if there is a pathways overview for the given species
+     */
+    public boolean hasOverview(String species) {
+        return new File(fireworksJsonFolder, species.replace(" ", "_") + ".json").exists();
+    }
+
+    /**
+     * @return true if the default pathways overview of the species in the given format and profile is cached
+     */
+    public boolean isCached(String species, String format, String profile) {
+        return rasterCache.contains(getDefaultKey(species, format, profile));
+    }
+
+    /**
+     * Renders the default pathways overview of the species in the given format and profile into the cache.
+     * It is pinned, so the requested images do not evict it
+     */
+    public void renderOverview(String species, String format, String profile) throws IOException {
+        FireworkArgs args = new FireworkArgs(species.replace(" ", "_"), format);
+        args.setProfile(profile);
+        args.setWriteTitle(true);
+        args.setQuality(QUALITY);
+        args.setMargin(MARGIN);
+        args.setResource(RESOURCE);
+        args.setCoverage(false);
+        Timings t = timings.computeIfAbsent(species, s -> new Timings());
+        long start = System.currentTimeMillis();
+        File rendered = rasterCache.createTempFile();
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(rendered))) {
+                fireworksExporter.render(args, os);
+            }
+            rasterCache.pin(getDefaultKey(species, format, profile), rendered);
+            t.rendered(System.currentTimeMillis() - start);
+        } catch (AnalysisServerError | TranscoderException e) {
+            t.failures.incrementAndGet();
+            throw new RuntimeException(String.format("The pathways overview of '%s' could not be rendered", species), e);
+        } finally {
+            Files.deleteIfExists(rendered.toPath());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> rtn = new TreeMap<>();
+        timings.forEach((species, t) -> rtn.put(species, t.toMap()));
+        return rtn;
+    }
+
+    private void warmup() {
+        long start = System.currentTimeMillis();
+        int rendered = 0;
+        for (Species species : speciesService.getSpecies()) {
+            String name = species.getDisplayName();
+            if (!hasOverview(name)) continue;
+            for (String format : warmupFormats.split(",")) {
+                String ext = format.trim();
+                if (ext.isEmpty() || isCached(name, ext, PROFILE)) continue;
+                try {
+                    renderOverview(name, ext, PROFILE);
+                    rendered++;
+                } catch (IOException | RuntimeException e) {
+                    errorLogger.warn(String.format("Warm up of the %s pathways overview (%s) failed: %s", name, ext, e.getMessage()));
+                }
+            }
+        }
+        infoLogger.info("Pathways overview warm up finished: {} images rendered in {} ms", rendered, System.currentTimeMillis() - start);
+    }
+
+    private String getDefaultKey(String species, String format, String profile) {
+        return getKey(species, format, null, null, true, true, QUALITY, MARGIN, profile, null, RESOURCE, null, false);
+    }
+
+    private static class Timings {
+        final AtomicLong renders = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong totalTime = new AtomicLong();
+        final AtomicLong maxTime = new AtomicLong();
+
+        void rendered(long time) {
+            renders.incrementAndGet();
+            totalTime.addAndGet(time);
+            maxTime.accumulateAndGet(time, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> rtn = new LinkedHashMap<>();
+            long n = renders.get();
+            rtn.put("renders", n);
+            rtn.put("hits", hits.get());
+            rtn.put("failures", failures.get());
+            rtn.put("averageTime", n == 0 ? 0 : totalTime.get() / n);
+            rtn.put("maxTime", maxTime.get());
+            return rtn;
+        }
+    }
+
+    @Autowired
+    public void setFireworksExporter(FireworksExporter fireworksExporter) {
+        this.fireworksExporter = fireworksExporter;
+    }
+
+    @Autowired
+    public void setSpeciesService(SpeciesService speciesService) {
+        this.speciesService = speciesService;
+    }
+
+    @Autowired
+    public void setRasterCache(RasterCache rasterCache) {
+        this.rasterCache = rasterCache;
+    }
+}
@@ -0,0 +1,272 @@
+package org.reactome.server.service.manager;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.reactome.server.graph.domain.model.Species;
+import org.reactome.server.graph.service.HierarchyService;
+import org.reactome.server.graph.service.SpeciesService;
+import org.reactome.server.graph.service.helper.PathwayBrowserNode;
+import org.reactome.server.service.utils.NamedThreadFactory;
+import org.reactome.server.service.utils.ResponseCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the event hierarchy of every species serialised (and gzip compressed), since it is one
+ * of the slowest queries and its result is the same for every request within a release.
+ * <p>
+ * Snapshots are built in parallel at startup and whenever the database version changes. The
+ * startup waits for the Homo sapiens one, so the service does not take traffic before the most
+ * requested hierarchy is ready. Species whose snapshot is not available are queried as before.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class HierarchySnapshotManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private static final String HUMAN = "9606";
+
+    //Same configuration than the message converter used for the controllers' responses
+    private static final ObjectMapper MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    @Value("${hierarchy.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hierarchy.snapshot.gzip:true}")
+    private boolean gzip;
+
+    @Value("${hierarchy.snapshot.threads:4}")
+    private int threads;
+
+    // Maximum time (in ms) the startup waits for the Homo sapiens snapshot
+    @Value("${hierarchy.snapshot.startup.timeout:600000}")
+    private long startupTimeout;
+
+    private HierarchyService hierarchyService;
+    private SpeciesService speciesService;
+    private ResponseCache responseCache;
+
+    private ExecutorService executor;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    // Species name and taxonomy id to the dbId of the species
+    private volatile Map<String, Long> aliases = Collections.emptyMap();
+    private volatile Map<Long, String> names = Collections.emptyMap();
+    private final Map<Long, CompletableFuture<Snapshot>> snapshots = new ConcurrentHashMap<>();
+    private Integer version = null;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("CS-HierarchySnapshot"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        //The event is received once per context
+        if (!enabled || !started.compareAndSet(false, true)) return;
+        long start = System.currentTimeMillis();
+        try {
+            checkVersion();
+            Long human = aliases.get(HUMAN);
+            if (human != null) {
+                //Blocking here keeps the application from being deployed (and taking traffic) before it is ready
+                getFuture(human).get(startupTimeout, TimeUnit.MILLISECONDS);
+                infoLogger.info("Homo sapiens event hierarchy snapshot ready in {} ms", System.currentTimeMillis() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            errorLogger.error("The Homo sapiens event hierarchy snapshot is not ready, it will be queried on demand", e);
+        }
+    }
+
+    /**
+     * @param species the species name or taxonomy id
+     * @return the event hierarchy of the given species or null if there is none
+     */
+    public Snapshot getSnapshot(String species) {
+        if (enabled) {
+            checkVersion();
+            Long dbId = aliases.get(species.trim().toLowerCase());
+            if (dbId != null) {
+                try {
+                    return getFuture(dbId).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    //The failed build is discarded so the next request tries again
+                    snapshots.remove(dbId);
+                    errorLogger.error("The event hierarchy snapshot for " + species + " could not be built", e.getCause());
+                }
+            }
+        }
+        Collection<PathwayBrowserNode> nodes = hierarchyService.getEventHierarchy(species);
+        if (nodes == null || nodes.isEmpty()) return null;
+        try {
+            return new Snapshot(nodes, false);
+        } catch (IOException e) {
+            throw new RuntimeException("The event hierarchy for " + species + " could not be serialised", e);
+        }
+    }
+
+    private Map<String, Object> getStatus() {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        rtn.put("version", version);
+        int ready = 0, size = 0;
+        for (CompletableFuture<Snapshot> future : snapshots.values()) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                ready++;
+                size += future.join().content.length;
+            }
+        }
+        rtn.put("snapshots", snapshots.size());
+        rtn.put("ready", ready);
+        rtn.put("size", size);
+        return rtn;
+    }
+
+    private CompletableFuture<Snapshot> getFuture(Long dbId) {
+        return snapshots.computeIfAbsent(dbId, id -> CompletableFuture.supplyAsync(() -> build(id), executor));
+    }
+
+    /**
+     * A new database version discards the snapshots and builds those of the new one in the background
+     */
+    private synchronized void checkVersion() {
+        Integer current = responseCache.getVersion();
+        if (Objects.equals(version, current)) return;
+        version = current;
+        snapshots.clear();
+
+        Map<String, Long> aux = new HashMap<>();
+        Map<Long, String> species = new LinkedHashMap<>();
+        for (Species s : speciesService.getSpecies()) {
+            if (s.getDisplayName() == null) continue;
+            species.put(s.getDbId(), s.getDisplayName());
+            aux.putIfAbsent(s.getDisplayName().toLowerCase(), s.getDbId());
+            if (s.getTaxId() != null) aux.putIfAbsent(s.getTaxId(), s.getDbId());
+        }
+        names = species;
+        aliases = aux;
+
+        //Homo sapiens first
+        Long human = aux.get(HUMAN);
+        if (human != null) getFuture(human);
+        long start = System.currentTimeMillis();
+        Integer building = version;
+        CompletableFuture.allOf(species.keySet().stream().map(this::getFuture).toArray(CompletableFuture[]::new))
+                .whenComplete((r, e) -> infoLogger.info("Event hierarchy snapshots for version {} built in {} ms: {}", building, System.currentTimeMillis() - start, getStatus()));
+        infoLogger.info("Building the event hierarchy snapshots of {} species for version {}", species.size(), version);
+    }
+
+    private Snapshot build(Long dbId) {
+        long start = System.currentTimeMillis();
+        String species = names.get(dbId);
+        Collection<PathwayBrowserNode> nodes = species == null ? null : hierarchyService.getEventHierarchy(species);
+        try {
+            Snapshot rtn = new Snapshot(nodes == null ? Collections.emptyList() : nodes, gzip);
+            infoLogger.debug("Event hierarchy snapshot for {} built in {} ms", species, System.currentTimeMillis() - start);
+            return rtn;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * The serialised event hierarchy of a species
+     */
+    public static class Snapshot {
+        private final byte[] content;
+        private final String hash;
+        private final boolean gzip;
+        private final boolean empty;
+
+        Snapshot(Collection<PathwayBrowserNode> nodes, boolean gzip) throws IOException {
+            this.gzip = gzip;
+            this.empty = nodes.isEmpty();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (OutputStream os = gzip ? new GZIPOutputStream(baos) : baos) {
+                MAPPER.writeValue(os, nodes);
+            }
+            this.content = baos.toByteArray();
+            this.hash = DigestUtils.md5DigestAsHex(content);
+        }
+
+        /**
+         * @return a strong ETag of the content sent by write (the compressed and plain contents have different ones)
+         */
+        public String getETag(boolean acceptsGzip) {
+            return "\"" + hash + (gzip && acceptsGzip ? "-gzip" : "") + "\"";
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        /**
+         * @return the length of the content sent by write (only known beforehand when it is not decompressed)
+         */
+        public Integer getLength(boolean acceptsGzip) {
+            return gzip && !acceptsGzip ? null : content.length;
+        }
+
+        /**
+         * Writes the (gzip compressed if accepted by the client) JSON of the hierarchy
+         */
+        public void write(OutputStream out, boolean acceptsGzip) throws IOException {
+            if (!gzip || acceptsGzip) {
+                out.write(content);
+            } else {
+                try (GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(content))) {
+                    IOUtils.copy(is, out);
+                }
+            }
+        }
+    }
+
+    @Autowired
+    public void setHierarchyService(HierarchyService hierarchyService) {
+        this.hierarchyService = hierarchyService;
+    }
+
+    @Autowired
+    public void setSpeciesService(SpeciesService speciesService) {
+        this.speciesService = speciesService;
+    }
+
+    @Autowired
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+}
@@ -10,17 +10,26 @@ import org.reactome.server.interactors.model.Interaction;
 import org.reactome.server.interactors.model.InteractionDetails;
 import org.reactome.server.interactors.service.PsicquicService;
 import org.reactome.server.interactors.util.Toolbox;
+import org.reactome.server.service.exception.StaticInteractionException;
 import org.reactome.server.service.model.interactors.Interactor;
 import org.reactome.server.service.model.interactors.InteractorEntity;
 import org.reactome.server.service.model.interactors.Interactors;
+import org.reactome.server.service.utils.InteractorsJsonWriter;
+import org.reactome.server.service.utils.PsicquicQueryExecutor;
+import org.reactome.server.service.utils.PsicquicResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import psidev.psi.mi.tab.PsimiTabException;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static org.reactome.server.service.utils.PsicquicResponseCache.Mode.DETAILS;
+import static org.reactome.server.service.utils.PsicquicResponseCache.Mode.SUMMARY;
 
 /**
  * @author Guilherme S Viteri (gviteri@ebi.ac.uk)
@@ -29,6 +38,9 @@ import java.util.Map;
 @Component
 public class InteractionManager {
 
+    // Number of accessions queried together in every chunk of the static details
+    private static final int STATIC_CHUNK_SIZE = 50;
+
     /**
      * Holds the services that query the IntAct interactions in the database
      */
@@ -38,8 +50,24 @@ public class InteractionManager {
     @Autowired
     private PsicquicService psicquicService;
 
+    @Autowired
+    private PsicquicQueryExecutor psicquicQueryExecutor;
+
+    @Autowired
+    private PsicquicResponseCache psicquicResponseCache;
+
+    /**
+     * Shared pool for the large static details queries, sized to the host
+     */
+    private final ExecutorService staticExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
     public InteractionManager() { }
 
+    @PreDestroy
+    public void shutdown() {
+        staticExecutor.shutdownNow();
+    }
+
     /**
      * Retrieve static interactions details
      *
@@ -48,8 +76,52 @@ public class InteractionManager {
     public Interactors getStaticProteinDetails(Collection<String> accs, String resource, Integer page, Integer pageSize) {
         Interactors rtn = new Interactors();
         rtn.setResource(resource);
+        try (StaticChunks chunks = getStaticChunks(accs, page, pageSize)) {
+            while (chunks.hasNext()) chunks.next().forEach(rtn::add);
+        }
+        return rtn;
+    }
+
+    /**
+     * Writes the same JSON than getStaticProteinDetails, sending every entity as soon as it is available.
+     * When writing fails (i.e. the client disconnects) the chunks that are still running are cancelled
+     */
+    public void writeStaticProteinDetails(Collection<String> accs, String resource, Integer page, Integer pageSize, OutputStream out) throws IOException {
+        try (InteractorsJsonWriter writer = new InteractorsJsonWriter(out, resource);
+             StaticChunks chunks = getStaticChunks(accs, page, pageSize)) {
+            while (chunks.hasNext()) {
+                for (Map.Entry<String, List<org.reactome.server.graph.domain.model.Interaction>> entry : chunks.next().entrySet()) {
+                    writer.write(new InteractorEntity(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Large lists are split in chunks that are queried concurrently. Chunks are retrieved lazily
+     * (in order) while iterating, so the first ones can be used while the rest are still running
+     */
+    private StaticChunks getStaticChunks(Collection<String> accs, Integer page, Integer pageSize) {
+        List<String> list = new ArrayList<>(accs);
+        List<Future<Map<String, List<org.reactome.server.graph.domain.model.Interaction>>>> chunks = new ArrayList<>();
+        if (list.size() <= STATIC_CHUNK_SIZE) {
+            chunks.add(CompletableFuture.completedFuture(getStaticInteractions(list, page, pageSize)));
+        } else {
+            for (int i = 0; i < list.size(); i += STATIC_CHUNK_SIZE) {
+                List<String> chunk = list.subList(i, Math.min(i + STATIC_CHUNK_SIZE, list.size()));
+                chunks.add(staticExecutor.submit(() -> getStaticInteractions(chunk, page, pageSize)));
+            }
+        }
+        return new StaticChunks(chunks);
+    }
+
+    /**
+     * @return the (paginated) interactions of each accession, keeping the order of the given list
+     */
+    private Map<String, List<org.reactome.server.graph.domain.model.Interaction>> getStaticInteractions(List<String> accs, Integer page, Integer pageSize) {
+        Map<String, List<org.reactome.server.graph.domain.model.Interaction>> rtn = new LinkedHashMap<>();
         for (String acc : accs) {
-            rtn.add(acc, interactionsService.getInteractions(acc, page, pageSize));
+            rtn.put(acc, interactionsService.getInteractions(acc, page, pageSize));
         }
         return rtn;
     }
@@ -61,8 +133,12 @@ public class InteractionManager {
      * @return InteractionMapper which will be serialized to JSON by Jackson
      */
     public Interactors getPsicquicProteinsDetails(Collection<String> accs, String resource) throws PsicquicQueryException, PsicquicRegistryClientException, PsimiTabException, PsicquicResourceNotFoundException {
-        // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
-        Map<String, List<Interaction>> interactionMap = psicquicService.getInteractions(resource, accs);
+        Map<String, List<Interaction>> interactionMap = psicquicResponseCache.getAll(resource, accs, DETAILS, getDetailsRefresher(resource));
+        List<String> missing = getMissing(accs, interactionMap);
+        if (!missing.isEmpty()) {
+            // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
+            interactionMap.putAll(cacheDetails(resource, missing, psicquicService.getInteractions(resource, missing)));
+        }
         return getDetailInteractionResult(interactionMap, resource);
     }
 
@@ -77,11 +153,40 @@ public class InteractionManager {
             // no more than 20 threads.....
             numberOfThreads = 20;
         }
-        // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
-        Map<String, List<Interaction>> interactionMap = psicquicService.getInteractions(resource, accs, numberOfThreads, cache);
+        Map<String, List<Interaction>> interactionMap = getCachedDetails(accs, resource, cache);
+        List<String> missing = getMissing(accs, interactionMap);
+        if (!missing.isEmpty()) {
+            // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
+            interactionMap.putAll(cacheDetails(resource, missing, psicquicService.getInteractions(resource, missing, numberOfThreads, cache)));
+        }
         return getDetailInteractionResult(interactionMap, resource);
     }
 
+    /**
+     * Retrieve PSICQUIC interactions without blocking the caller. Every accession is queried
+     * on the shared PSICQUIC executor, which limits the concurrent queries per resource.
+     * The raw interactions are kept, so the response entities can be converted while they are written
+     *
+     * @param resource PSICQUIC Resource
+     * @return a future with the interactions of every accession
+     */
+    public CompletableFuture<Map<String, List<Interaction>>> getPsicquicInteractionsAsync(Collection<String> accs, String resource, boolean cache) {
+        List<CompletableFuture<Map<String, List<Interaction>>>> queries = new ArrayList<>();
+        Map<String, List<Interaction>> cached = getCachedDetails(accs, resource, cache);
+        queries.add(CompletableFuture.completedFuture(cached));
+        for (String acc : getMissing(accs, cached)) {
+            List<String> missing = Collections.singletonList(acc);
+            queries.add(psicquicQueryExecutor.submit(resource, () -> cacheDetails(resource, missing, psicquicService.getInteractions(resource, missing, 1, cache))));
+        }
+        return CompletableFuture.allOf(queries.toArray(new CompletableFuture[queries.size()])).thenApply(v -> {
+            Map<String, List<Interaction>> interactionMap = new HashMap<>();
+            for (CompletableFuture<Map<String, List<Interaction>>> query : queries) {
+                interactionMap.putAll(query.join());
+            }
+            return interactionMap;
+        });
+    }
+
     /**
      * Generic method that queries the database and build the JSON Object
      *
@@ -99,11 +204,69 @@ public class InteractionManager {
      * @return InteractionMapper which will be serialized to JSON by Jackson
      */
     public Interactors getPsicquicProteinsSummary(Collection<String> accs, String resource) throws PsicquicQueryException, PsicquicRegistryClientException, PsimiTabException, PsicquicResourceNotFoundException {
-        // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
-        Map<String, Integer> interactionMap = psicquicService.countInteraction(resource, accs);
+        PsicquicResponseCache.Loader<Integer> refresher = missing -> complete(missing, psicquicService.countInteraction(resource, missing), () -> 0);
+        Map<String, Integer> interactionMap = psicquicResponseCache.getAll(resource, accs, SUMMARY, refresher);
+        List<String> missing = getMissing(accs, interactionMap);
+        if (!missing.isEmpty()) {
+            // Query PSICQUIC service and retrieve Interactions sorted by score and higher than 0.45
+            Map<String, Integer> counts = complete(missing, psicquicService.countInteraction(resource, missing), () -> 0);
+            psicquicResponseCache.putAll(resource, SUMMARY, counts);
+            interactionMap.putAll(counts);
+        }
         return getSummaryInteractionResult(interactionMap, resource);
     }
 
+    /**
+     * When the cache is not to be used every accession is queried (the answers are cached anyway,
+     * so they refresh the cached ones)
+     */
+    private Map<String, List<Interaction>> getCachedDetails(Collection<String> accs, String resource, boolean cache) {
+        if (!cache) return new HashMap<>();
+        return psicquicResponseCache.getAll(resource, accs, DETAILS, getDetailsRefresher(resource));
+    }
+
+    public Map<String, Object> getPsicquicCacheMetrics() {
+        return psicquicResponseCache.getMetrics();
+    }
+
+    /**
+     * Stale cached details are refreshed in the background with this loader
+     */
+    private PsicquicResponseCache.Loader<List<Interaction>> getDetailsRefresher(String resource) {
+        return missing -> complete(missing, psicquicService.getInteractions(resource, missing, 1, true), ArrayList::new);
+    }
+
+    /**
+     * Keeps the PSICQUIC answer in the cache
+     *
+     * @return the interactions of every queried accession
+     */
+    private Map<String, List<Interaction>> cacheDetails(String resource, Collection<String> accs, Map<String, List<Interaction>> interactionMap) {
+        Map<String, List<Interaction>> rtn = complete(accs, interactionMap, ArrayList::new);
+        psicquicResponseCache.putAll(resource, DETAILS, rtn);
+        return rtn;
+    }
+
+    /**
+     * PSICQUIC does not answer for the accessions without interactions, but they are cached as well
+     */
+    private <T> Map<String, T> complete(Collection<String> accs, Map<String, T> answer, Supplier<T> empty) {
+        Map<String, T> rtn = new HashMap<>();
+        for (String acc : accs) {
+            T value = answer.get(acc);
+            rtn.put(acc, value != null ? value : empty.get());
+        }
+        return rtn;
+    }
+
+    private List<String> getMissing(Collection<String> accs, Map<String, ?> found) {
+        List<String> rtn = new ArrayList<>();
+        for (String acc : accs) {
+            if (!found.containsKey(acc)) rtn.add(acc);
+        }
+        return rtn;
+    }
+
     /**
      * Set up the InteractionResult object of a given map of interactions and Resource.
      * This method is able to parse for static resource and psicquic.
@@ -120,6 +283,14 @@ public class InteractionManager {
         return getInteractionResult(interactionMaps, resource, token);
     }
 
+    public void writeDetailInteractionResult(Map<String, List<Interaction>> interactionMaps, String resource, OutputStream out) throws IOException {
+        writeInteractionResult(interactionMaps, resource, null, out);
+    }
+
+    public void writeCustomInteractionResult(Map<String, List<Interaction>> interactionMaps, String resource, String token, OutputStream out) throws IOException {
+        writeInteractionResult(interactionMaps, resource, token, out);
+    }
+
     public Collection<Pathway> getLowerLevelPathways(String acc, String speciesName, Boolean hasDiagram) {
         if (hasDiagram) {
             return interactionsService.getDiagrammedLowerLevelPathways(acc, speciesName);
@@ -134,65 +305,85 @@ public class InteractionManager {
         // Entities are a JSON Object
         List<InteractorEntity> entities = new ArrayList<>();
 
-        long count = 1;
+        long[] count = {1};
         for (String accKey : interactionMaps.keySet()) {
-            List<Interaction> interactions = interactionMaps.get(accKey);
+            InteractorEntity entity = getInteractorEntity(accKey, interactionMaps.get(accKey), resource, count);
+            if (entity != null) entities.add(entity);
+        }
 
-            // Remove from output if there is no interaction
-            if (interactions.size() == 0) {
-                continue;
+        interactionMapper.setResource(resource);
+
+        // This is needed for the custom interaction
+        if (StringUtils.isNotEmpty(token)) {
+            interactionMapper.setResource(token);
+        }
+
+        interactionMapper.setEntities(entities);
+        return interactionMapper;
+    }
+
+    /**
+     * Writes the same JSON than getInteractionResult, but converting and sending the entities one by one
+     */
+    private void writeInteractionResult(Map<String, List<Interaction>> interactionMaps, String resource, String token, OutputStream out) throws IOException {
+        try (InteractorsJsonWriter writer = new InteractorsJsonWriter(out, StringUtils.isNotEmpty(token) ? token : resource)) {
+            long[] count = {1};
+            for (String accKey : interactionMaps.keySet()) {
+                InteractorEntity entity = getInteractorEntity(accKey, interactionMaps.get(accKey), resource, count);
+                if (entity != null) writer.write(entity);
             }
+        }
+    }
 
-            InteractorEntity entity = new InteractorEntity();
-            entity.setAcc(accKey.trim());
-            entity.setCount(interactions.size());
-
-            List<Interactor> interactorsResultList = new ArrayList<>();
-            for (Interaction interaction : interactions) {
-                Interactor interactor = new Interactor();
-                interactor.setAcc(interaction.getInteractorB().getAcc());
-                interactor.setScore(interaction.getIntactScore());
-                interactor.setAlias(interaction.getInteractorB().getAliasWithoutSpecies(true));
-
-                // Set Id as auto increment
-                interactor.setId(count++);
-
-                // This list holds evidences that we are going to use to build the evidences URL.
-                List<String> evidencesWithDbNames = new ArrayList<>();
-
-                // Set Evidences as the others Interactions identifiers
-                if (interaction.getInteractionDetailsList() != null) {
-                    for (InteractionDetails interactionDetail : interaction.getInteractionDetailsList()) {
-                        String evidence = interactionDetail.getInteractionAc();
-                        evidencesWithDbNames.add(evidence);
-                    }
-                }
+    /**
+     * @param count auto increment used as interactor id, shared by all the entities of the response
+     * @return the entity for the given accession or null if there is no interaction
+     */
+    private InteractorEntity getInteractorEntity(String accKey, List<Interaction> interactions, String resource, long[] count) {
+        // Remove from output if there is no interaction
+        if (interactions.size() == 0) {
+            return null;
+        }
 
-                if (interaction.getInteractionDetailsList() != null && interaction.getInteractionDetailsList().size() > 0) {
-                    interactor.setEvidences(interaction.getInteractionDetailsList().size());
-                }
+        InteractorEntity entity = new InteractorEntity();
+        entity.setAcc(accKey.trim());
+        entity.setCount(interactions.size());
+
+        List<Interactor> interactorsResultList = new ArrayList<>();
+        for (Interaction interaction : interactions) {
+            Interactor interactor = new Interactor();
+            interactor.setAcc(interaction.getInteractorB().getAcc());
+            interactor.setScore(interaction.getIntactScore());
+            interactor.setAlias(interaction.getInteractorB().getAliasWithoutSpecies(true));
+
+            // Set Id as auto increment
+            interactor.setId(count[0]++);
 
-                // Accession URL
-                interactor.setAccURL(Toolbox.getAccessionURL(interaction.getInteractorB().getAcc(), resource));
+            // This list holds evidences that we are going to use to build the evidences URL.
+            List<String> evidencesWithDbNames = new ArrayList<>();
 
-                // Interaction URL
-                interactor.setEvidencesURL(Toolbox.getEvidencesURL(evidencesWithDbNames, resource));
-                interactorsResultList.add(interactor);
+            // Set Evidences as the others Interactions identifiers
+            if (interaction.getInteractionDetailsList() != null) {
+                for (InteractionDetails interactionDetail : interaction.getInteractionDetailsList()) {
+                    String evidence = interactionDetail.getInteractionAc();
+                    evidencesWithDbNames.add(evidence);
+                }
             }
 
-            entity.setInteractors(interactorsResultList);
-            entities.add(entity);
-        }
+            if (interaction.getInteractionDetailsList() != null && interaction.getInteractionDetailsList().size() > 0) {
+                interactor.setEvidences(interaction.getInteractionDetailsList().size());
+            }
 
-        interactionMapper.setResource(resource);
+            // Accession URL
+            interactor.setAccURL(Toolbox.getAccessionURL(interaction.getInteractorB().getAcc(), resource));
 
-        // This is needed for the custom interaction
-        if (StringUtils.isNotEmpty(token)) {
-            interactionMapper.setResource(token);
+            // Interaction URL
+            interactor.setEvidencesURL(Toolbox.getEvidencesURL(evidencesWithDbNames, resource));
+            interactorsResultList.add(interactor);
         }
 
-        interactionMapper.setEntities(entities);
-        return interactionMapper;
+        entity.setInteractors(interactorsResultList);
+        return entity;
     }
 
     /**
@@ -222,4 +413,42 @@ public class InteractionManager {
         interactionMapper.setEntities(entities);
         return interactionMapper;
     }
-}
\ No newline at end of file
+
+    /**
+     * The static interactions, chunk by chunk. Closing it cancels the chunks that are still
+     * running or pending (i.e. when the consumer stops before the end)
+     */
+    private static class StaticChunks implements Iterator<Map<String, List<org.reactome.server.graph.domain.model.Interaction>>>, AutoCloseable {
+        private final List<Future<Map<String, List<org.reactome.server.graph.domain.model.Interaction>>>> chunks;
+        private int next = 0;
+
+        StaticChunks(List<Future<Map<String, List<org.reactome.server.graph.domain.model.Interaction>>>> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < chunks.size();
+        }
+
+        @Override
+        public Map<String, List<org.reactome.server.graph.domain.model.Interaction>> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            try {
+                return chunks.get(next++).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new StaticInteractionException(e);
+            } catch (ExecutionException e) {
+                close();
+                throw new StaticInteractionException(e.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.reactome.server.service.manager;
+
+import org.reactome.server.graph.domain.model.Event;
+import org.reactome.server.graph.domain.model.Species;
+import org.reactome.server.graph.domain.result.DiagramResult;
+import org.reactome.server.graph.exception.CustomQueryException;
+import org.reactome.server.graph.service.*;
+import org.reactome.server.service.utils.RasterCache;
+import org.reactome.server.tools.diagram.exporter.common.Decorator;
+import org.reactome.server.tools.diagram.exporter.raster.RasterExporter;
+import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
+import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders in bulk the default exports of every diagrammed pathway (images, PPTX, SBGN and SBML)
+ * and the pathways overview of every species, so the first users after a release do not pay for it.
+ * <p>
+ * Everything runs in a fork-join pool with a limited parallelism. Files that already exist are
+ * skipped, so a stopped or interrupted run continues where it was left. Rendering stops when the
+ * free disk space goes below the configured minimum. Once a version is completely rendered a
+ * marker file avoids running it again at startup.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class PreRenderManager {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private static final String DONE_MARKER = "prerender.done";
+
+    //Same defaults than the exporter endpoints, so the rendered files are the ones served by default
+    private static final Integer QUALITY = 5;
+    private static final Integer MARGIN = 15;
+    private static final String ANALYSIS_PROFILE = "Standard";
+    private static final String RESOURCE = "total";
+
+    public enum State {IDLE, RUNNING, CANCELLED, STOPPED, FINISHED}
+
+    @Value("${diagram.exporter.temp.folder}")
+    private String diagramExporterTempFolder;
+
+    @Value("${prerender.startup:false}")
+    private boolean startup;
+
+    @Value("${prerender.threads:0}")
+    private int threads;
+
+    @Value("${prerender.formats:png,svg,pptx,sbgn,sbml}")
+    private String formats;
+
+    @Value("${prerender.profiles:Modern}")
+    private String profiles;
+
+    @Value("${prerender.fireworks.formats:png,svg}")
+    private String fireworksFormats;
+
+    @Value("${prerender.fireworks.profiles:Copper}")
+    private String fireworksProfiles;
+
+    @Value("${prerender.min.free.space:5368709120}")
+    private long minFreeSpace;
+
+    private AdvancedDatabaseObjectService ados;
+    private DatabaseObjectService databaseObjectService;
+    private DiagramService diagramService;
+    private GeneralService generalService;
+    private SpeciesService speciesService;
+    private ExportManager exportManager;
+    private RasterExporter rasterExporter;
+    private FireworksManager fireworksManager;
+    private RasterCache rasterCache;
+
+    private ForkJoinPool pool;
+    private volatile State state = State.IDLE;
+    private volatile Integer version;
+    private volatile long start;
+    private volatile long end;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void onStartup() {
+        if (!startup) return;
+        if (getDoneMarker().exists()) {
+            infoLogger.info("Pre-rendering for version {} was already completed", generalService.getDBInfo().getVersion());
+        } else {
+            start();
+        }
+    }
+
+    /**
+     * Starts the pre-rendering in the background (unless it is already running)
+     *
+     * @return true if it has been started by this call
+     */
+    public synchronized boolean start() {
+        if (state == State.RUNNING) return false;
+        version = generalService.getDBInfo().getVersion();
+        start = System.currentTimeMillis();
+        end = 0;
+        total.set(0);
+        processed.set(0);
+        rendered.set(0);
+        skipped.set(0);
+        failed.set(0);
+        state = State.RUNNING;
+
+        int parallelism = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        pool = new ForkJoinPool(parallelism);
+        pool.execute(this::run);
+        infoLogger.info("Pre-rendering for version {} started with {} threads", version, parallelism);
+        return true;
+    }
+
+    public synchronized void cancel() {
+        if (state == State.RUNNING) state = State.CANCELLED;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        rtn.put("state", state);
+        rtn.put("version", version);
+        rtn.put("total", total.get());
+        rtn.put("processed", processed.get());
+        rtn.put("rendered", rendered.get());
+        rtn.put("skipped", skipped.get());
+        rtn.put("failed", failed.get());
+        if (start > 0) rtn.put("time", (end > 0 ? end : System.currentTimeMillis()) - start);
+        return rtn;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+        if (pool != null) pool.shutdownNow();
+    }
+
+    private void run() {
+        try {
+            List<Runnable> tasks = new ArrayList<>();
+            for (String stId : getDiagrammedPathways()) tasks.add(() -> renderPathway(stId));
+            for (Species species : speciesService.getSpecies()) {
+                String name = species.getDisplayName();
+                if (fireworksManager.hasOverview(name)) tasks.add(() -> renderFireworks(name));
+            }
+            total.set(tasks.size());
+            //The parallel stream runs in this (size limited) pool because it is started from one of its threads
+            tasks.parallelStream().forEach(task -> {
+                if (state != State.RUNNING) return;
+                if (rasterCache.getFolder().getUsableSpace() < minFreeSpace) {
+                    synchronized (this) {
+                        if (state == State.RUNNING) errorLogger.error("Pre-rendering stopped: not enough free disk space");
+                        state = State.STOPPED;
+                    }
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    errorLogger.warn("Pre-rendering task failed: " + e.getMessage());
+                }
+                processed.incrementAndGet();
+            });
+            synchronized (this) {
+                if (state == State.RUNNING) {
+                    state = State.FINISHED;
+                    Files.write(getDoneMarker().toPath(), getStatus().toString().getBytes());
+                }
+            }
+        } catch (CustomQueryException | IOException | RuntimeException e) {
+            errorLogger.error("Pre-rendering failed", e);
+            state = State.STOPPED;
+        } finally {
+            end = System.currentTimeMillis();
+            infoLogger.info("Pre-rendering for version {} {}: {}", version, state.name().toLowerCase(), getStatus());
+            pool.shutdown();
+        }
+    }
+
+    private void renderPathway(String stId) {
+        DiagramResult result = diagramService.getDiagramResult(stId);
+        String diagramStId = result.getDiagramStId();
+        Event event = null;
+        for (String format : split(formats)) {
+            switch (format) {
+                case "pptx":
+                    for (String profile : split(profiles)) {
+                        render(stId, format + ":" + profile, () -> exportManager.hasPPTX(stId, profile), () -> exportManager.getDiagramPPTX(stId, profile, new Decorator()));
+                    }
+                    break;
+                case "sbgn":
+                case "sbml":
+                    if (event == null) event = databaseObjectService.findById(stId);
+                    Event e = event;
+                    String fileName = stId + (format.equals("sbgn") ? ExportManager.SBGN_FILE_EXTENSION : ExportManager.SBML_FILE_EXTENSION);
+                    render(stId, format, () -> exportManager.hasCachedFile(fileName), () -> {
+                        //The file is generated (and kept) the first time it is requested
+                        InputStream is = format.equals("sbgn") ? exportManager.getSBGN(e) : exportManager.getSBML(e);
+                        is.close();
+                    });
+                    break;
+                default:
+                    for (String profile : split(profiles)) {
+                        List<String> selected = result.getEvents();
+                        String key = rasterCache.getDiagramKey(diagramStId, format, selected, null, true, true, QUALITY, true, MARGIN, profile, ANALYSIS_PROFILE, RESOURCE, null);
+                        render(stId, format + ":" + profile, () -> rasterCache.contains(key), () -> {
+                            RasterArgs args = new RasterArgs(diagramStId, format);
+                            args.setProfiles(new ColorProfiles(profile, ANALYSIS_PROFILE, null));
+                            args.setSelected(selected);
+                            args.setWriteTitle(true);
+                            args.setQuality(QUALITY);
+                            args.setEhld(true);
+                            args.setMargin(MARGIN);
+                            args.setResource(RESOURCE);
+                            cache(key, os -> rasterExporter.export(args, os));
+                        });
+                    }
+            }
+        }
+    }
+
+    private void renderFireworks(String species) {
+        for (String format : split(fireworksFormats)) {
+            for (String profile : split(fireworksProfiles)) {
+                render(species, format + ":" + profile, () -> fireworksManager.isCached(species, format, profile), () -> fireworksManager.renderOverview(species, format, profile));
+            }
+        }
+    }
+
+    private void render(String identifier, String type, Check exists, Task task) {
+        try {
+            if (exists.check()) {
+                skipped.incrementAndGet();
+            } else {
+                task.run();
+                rendered.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            errorLogger.warn(String.format("Pre-rendering of %s (%s) failed: %s", identifier, type, e.getMessage()));
+        }
+    }
+
+    private void cache(String key, Renderer renderer) throws Exception {
+        File tmp = rasterCache.createTempFile();
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                renderer.render(os);
+            }
+            //Pinned, so a full run neither evicts its own images nor the requested ones
+            rasterCache.pin(key, tmp);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private List<String> getDiagrammedPathways() throws CustomQueryException {
+        String query = "" +
+                "MATCH (p:Pathway{hasDiagram:true}) " +
+                "RETURN DISTINCT p.stId AS stId " +
+                "ORDER BY stId";
+        return new ArrayList<>(ados.getCustomQueryResults(String.class, query, new HashMap<>()));
+    }
+
+    private File getDoneMarker() {
+        if (!diagramExporterTempFolder.endsWith("/")) diagramExporterTempFolder += "/";
+        return new File(diagramExporterTempFolder + generalService.getDBInfo().getVersion() + "/" + DONE_MARKER);
+    }
+
+    private static List<String> split(String list) {
+        List<String> rtn = new ArrayList<>();
+        for (String item : list.split(",")) {
+            if (!item.trim().isEmpty()) rtn.add(item.trim());
+        }
+        return rtn;
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean check() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Renderer {
+        void render(OutputStream os) throws Exception;
+    }
+
+    @Autowired
+    public void setAdos(AdvancedDatabaseObjectService ados) {
+        this.ados = ados;
+    }
+
+    @Autowired
+    public void setDatabaseObjectService(DatabaseObjectService databaseObjectService) {
+        this.databaseObjectService = databaseObjectService;
+    }
+
+    @Autowired
+    public void setDiagramService(DiagramService diagramService) {
+        this.diagramService = diagramService;
+    }
+
+    @Autowired
+    public void setGeneralService(GeneralService generalService) {
+        this.generalService = generalService;
+    }
+
+    @Autowired
+    public void setSpeciesService(SpeciesService speciesService) {
+        this.speciesService = speciesService;
+    }
+
+    @Autowired
+    public void setExportManager(ExportManager exportManager) {
+        this.exportManager = exportManager;
+    }
+
+    @Autowired
+    public void setRasterExporter(RasterExporter rasterExporter) {
+        this.rasterExporter = rasterExporter;
+    }
+
+    @Autowired
+    public void setFireworksManager(FireworksManager fireworksManager) {
+        this.fireworksManager = fireworksManager;
+    }
+
+    @Autowired
+    public void setRasterCache(RasterCache rasterCache) {
+        this.rasterCache = rasterCache;
+    }
+}
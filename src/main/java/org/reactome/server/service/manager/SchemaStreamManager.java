@@ -0,0 +1,137 @@
+package org.reactome.server.service.manager;
+
+import org.neo4j.ogm.session.Session;
+import org.neo4j.ogm.session.SessionFactory;
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Pages through the whole content of a schema class, so it can be streamed (i.e. as newline
+ * delimited JSON) without the clients paging manually and without keeping more than one page
+ * in memory.
+ * <p>
+ * Pages are retrieved by dbId (every page starts after the last dbId of the previous one), so
+ * the cost of a page does not grow with its position as with SKIP. The objects of a page are then
+ * loaded with their relationships (default depth), as done when paging through the schema service,
+ * so the streamed objects look the same than the ones of the paginated method. Every page is
+ * retrieved in a session of its own, so the objects are not kept in the shared one once they have
+ * been sent.
+ * <p>
+ * The first page is retrieved when the iterator is created, so wrong parameters are reported
+ * before anything has been sent. The following pages are only retrieved when requested.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class SchemaStreamManager {
+
+    // Both return the (graph) ids of the objects in the page, which are then loaded by the session
+    private static final String PAGE_QUERY = "" +
+            "MATCH (n:%s) " +
+            "WHERE n.dbId > {last} " +
+            "RETURN id(n) " +
+            "ORDER BY n.dbId LIMIT {size}";
+
+    private static final String SPECIES_PAGE_QUERY = "" +
+            "MATCH (n:%s)-[:species]->(s:Species) " +
+            "WHERE n.dbId > {last} AND (s.taxId = {species} OR s.displayName = {species}) " +
+            "WITH DISTINCT n " +
+            "ORDER BY n.dbId LIMIT {size} " +
+            "RETURN id(n)";
+
+    // Same depth used by the session when loading objects by default
+    private static final int DEPTH = 1;
+
+    // Number of objects retrieved from the database at once
+    @Value("${schema.stream.page.size:500}")
+    private int pageSize;
+
+    private SessionFactory sessionFactory;
+
+    /**
+     * @param species the species filter, name or taxonomy id (null for all of them)
+     * @return the pages of objects of the given schema class
+     */
+    public Iterator<Collection<DatabaseObject>> getByClassName(String className, String species) throws ClassNotFoundException {
+        return getByClass(getClass(className), species);
+    }
+
+    /**
+     * @return the pages of objects of the given class
+     */
+    public <T extends DatabaseObject> Iterator<Collection<T>> getByClass(Class<T> clazz) {
+        return getByClass(clazz, null);
+    }
+
+    private <T extends DatabaseObject> Iterator<Collection<T>> getByClass(Class<T> clazz, String species) {
+        //The label is not a parameter, but it is the name of a schema class
+        String query = String.format(species == null ? PAGE_QUERY : SPECIES_PAGE_QUERY, clazz.getSimpleName());
+        return new PageIterator<>(clazz, query, species);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<DatabaseObject> getClass(String className) throws ClassNotFoundException {
+        Class<?> clazz = Class.forName(DatabaseObject.class.getPackage().getName() + "." + className);
+        if (!DatabaseObject.class.isAssignableFrom(clazz)) throw new ClassNotFoundException(className);
+        //Objects of a subclass are DatabaseObjects
+        return (Class<DatabaseObject>) clazz;
+    }
+
+    private class PageIterator<T extends DatabaseObject> implements Iterator<Collection<T>> {
+        private final Class<T> clazz;
+        private final String query;
+        private final Map<String, Object> params = new HashMap<>();
+        private Collection<T> next;
+        private boolean last = false;
+        private long lastDbId = Long.MIN_VALUE;
+
+        PageIterator(Class<T> clazz, String query, String species) {
+            this.clazz = clazz;
+            this.query = query;
+            if (species != null) params.put("species", species);
+            params.put("size", pageSize);
+            this.next = fetch();
+        }
+
+        @Override
+        public boolean hasNext() {
+            //Pages are retrieved once the previous one has been consumed
+            if (next == null && !last) next = fetch();
+            return next != null && !next.isEmpty();
+        }
+
+        @Override
+        public Collection<T> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Collection<T> rtn = next;
+            next = null;
+            //A short page is the last one
+            last = rtn.size() < pageSize;
+            return rtn;
+        }
+
+        private Collection<T> fetch() {
+            params.put("last", lastDbId);
+            Session session = sessionFactory.openSession();
+            List<Long> ids = new ArrayList<>();
+            session.query(Long.class, query, params).forEach(ids::add);
+            if (ids.isEmpty()) return new ArrayList<>();
+            List<T> rtn = new ArrayList<>(session.loadAll(clazz, ids, DEPTH));
+            //The session does not keep the order of the query
+            rtn.sort(Comparator.comparing(DatabaseObject::getDbId));
+            if (!rtn.isEmpty()) lastDbId = rtn.get(rtn.size() - 1).getDbId();
+            //Objects are serialised outside the controller, so lazy loading is prevented here
+            rtn.forEach(o -> o.preventLazyLoading(true));
+            return rtn;
+        }
+    }
+
+    @Autowired
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+}
@@ -0,0 +1,63 @@
+package org.reactome.server.service.utils;
+
+/**
+ * Keeps track of the consecutive failures of a remote resource. Once the threshold is reached
+ * the circuit opens and calls are short-circuited until the open time has elapsed. Then a single
+ * trial call is let through (half open) and its outcome closes or re-opens the circuit.
+ *
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+class CircuitBreaker {
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openTime) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openTime) return false;
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                //Only the trial call goes through while half open
+                return false;
+        }
+    }
+
+    synchronized void success() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Gives back the trial call when it could not be sent, so the next call is the trial one
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN) state = State.OPEN;
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
@@ -0,0 +1,188 @@
+package org.reactome.server.service.utils;
+
+import org.reactome.server.tools.diagram.data.DiagramFactory;
+import org.reactome.server.tools.diagram.data.exception.DeserializationException;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+import org.reactome.server.tools.diagram.data.layout.Diagram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsed diagram layouts and graphs, shared by the exporters so every diagram json file is parsed
+ * once per release instead of once per request.
+ * <p>
+ * The cache is bounded by the size of the parsed json files and evicts the least recently used
+ * entries. It is emptied when the database version changes. Cached objects are shared between
+ * requests, so they must not be modified.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class DiagramCache {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private final String diagramJsonFolder;
+    private final long maxSize;
+
+    private ResponseCache responseCache;
+
+    // In access order, so the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private long size = 0;
+    private Integer version = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public DiagramCache(@Value("${diagram.json.folder}") String diagramJsonFolder,
+                        @Value("${diagram.cache.size:268435456}") long maxSize) {
+        this.diagramJsonFolder = diagramJsonFolder;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the parsed layout of the given diagram or null if it does not exist or cannot be parsed
+     */
+    public Diagram getDiagram(String stId) {
+        return get(stId + ".json", DiagramFactory::getDiagram);
+    }
+
+    /**
+     * @return the parsed graph of the given diagram or null if it does not exist or cannot be parsed
+     */
+    public Graph getGraph(String stId) {
+        return get(stId + ".graph.json", DiagramFactory::getGraph);
+    }
+
+    public String getStatistics() {
+        long h = hits.get(), total = h + misses.get();
+        synchronized (this) {
+            return String.format("Diagram cache: %d hits out of %d requests, %d entries (%d bytes of json)", h, total, cache.size(), size);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String fileName, Parser<T> parser) {
+        T rtn = getFromCache(fileName);
+        if (rtn != null) {
+            hits.incrementAndGet();
+            return rtn;
+        }
+        //Concurrent requests for the same file wait for a single parsing
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(fileName, future);
+        if (running != null) {
+            hits.incrementAndGet();
+            return (T) running.join();
+        }
+        try {
+            //It might have been parsed (and cached) between the first check and the registration
+            rtn = getFromCache(fileName);
+            if (rtn != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                rtn = parse(fileName, parser);
+            }
+            future.complete(rtn);
+            return rtn;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(fileName, future);
+        }
+    }
+
+    private <T> T parse(String fileName, Parser<T> parser) {
+        try {
+            String json = new String(Files.readAllBytes(new File(diagramJsonFolder, fileName).toPath()), StandardCharsets.UTF_8);
+            T rtn = parser.parse(json);
+            put(fileName, rtn, json.length());
+            return rtn;
+        } catch (NoSuchFileException e) {
+            infoLogger.debug("Diagram file {} not found", fileName);
+            return null;
+        } catch (IOException | DeserializationException e) {
+            errorLogger.error("Could not parse the diagram file " + fileName, e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getFromCache(String fileName) {
+        Integer current = responseCache.getVersion();
+        synchronized (this) {
+            checkVersion(current);
+            Entry entry = cache.get(fileName);
+            return entry != null ? (T) entry.value : null;
+        }
+    }
+
+    private void put(String fileName, Object value, long weight) {
+        Integer current = responseCache.getVersion();
+        synchronized (this) {
+            checkVersion(current);
+            Entry previous = cache.put(fileName, new Entry(value, weight));
+            if (previous != null) size -= previous.weight;
+            size += weight;
+            Iterator<Entry> it = cache.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().weight;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Diagram files are replaced with every release, so the cache is scoped to the database version
+     * (retrieved from the response cache, which only checks it once in a while)
+     */
+    private void checkVersion(Integer current) {
+        if (Objects.equals(version, current)) return;
+        if (version != null) infoLogger.info("{} (version {} discarded)", getStatistics(), version);
+        version = current;
+        cache.clear();
+        size = 0;
+    }
+
+    @FunctionalInterface
+    private interface Parser<T> {
+        T parse(String json) throws DeserializationException;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    @Autowired
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+}
@@ -0,0 +1,123 @@
+package org.reactome.server.service.utils;
+
+import java.util.*;
+
+/**
+ * Compact, immutable representation of the events hierarchy (the "hasEvent" relationships).
+ * <p>
+ * Events are identified by consecutive int ids assigned in dbId order, so the dbId of an event is
+ * found by binary search and its stId through a dictionary. The parents of every event are kept
+ * in compressed sparse row format: the parents of node n are parents[offsets[n]] to
+ * parents[offsets[n + 1] - 1].
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public final class EventGraph {
+
+    private final long[] dbIds;
+    private final Map<String, Integer> stIds;
+    private final BitSet topLevelPathways;
+    private final int[] offsets;
+    private final int[] parents;
+
+    /**
+     * @param dbIds            the dbIds of the events
+     * @param stIds            the stIds of the events (same order than dbIds)
+     * @param topLevelPathways the positions (in dbIds) of the top level pathways
+     * @param edges            pairs of dbIds (parent, child) for every "hasEvent" relationship
+     */
+    public EventGraph(long[] dbIds, String[] stIds, BitSet topLevelPathways, long[] edges) {
+        int n = dbIds.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> dbIds[i]));
+
+        this.dbIds = new long[n];
+        this.stIds = new HashMap<>(n * 4 / 3 + 1);
+        this.topLevelPathways = new BitSet(n);
+        for (int node = 0; node < n; node++) {
+            int i = order[node];
+            this.dbIds[node] = dbIds[i];
+            if (stIds[i] != null) this.stIds.put(stIds[i], node);
+            if (topLevelPathways.get(i)) this.topLevelPathways.set(node);
+        }
+
+        //Counting the parents of every node first, so the offsets can be set before filling the array
+        int[] edgeParents = new int[edges.length / 2];
+        int[] edgeChildren = new int[edges.length / 2];
+        int m = 0;
+        this.offsets = new int[n + 1];
+        for (int e = 0; e + 1 < edges.length; e += 2) {
+            int parent = indexOf(edges[e]);
+            int child = indexOf(edges[e + 1]);
+            if (parent < 0 || child < 0) continue;
+            edgeParents[m] = parent;
+            edgeChildren[m++] = child;
+            offsets[child + 1]++;
+        }
+        for (int node = 0; node < n; node++) offsets[node + 1] += offsets[node];
+        this.parents = new int[m];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < m; e++) parents[next[edgeChildren[e]]++] = edgeParents[e];
+    }
+
+    /**
+     * @param identifier a stId or a dbId
+     * @return the node of the given event or -1 if it is not part of the graph
+     */
+    public int indexOf(String identifier) {
+        Integer node = stIds.get(identifier);
+        if (node != null) return node;
+        try {
+            return indexOf(Long.parseLong(identifier));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int indexOf(long dbId) {
+        int node = Arrays.binarySearch(dbIds, dbId);
+        return node < 0 ? -1 : node;
+    }
+
+    public long getDbId(int node) {
+        return dbIds[node];
+    }
+
+    public int size() {
+        return dbIds.length;
+    }
+
+    /**
+     * @return every path (as nodes, starting with the given one) from the node up to a top level pathway
+     */
+    public List<int[]> getAncestors(int node) {
+        List<int[]> rtn = new ArrayList<>();
+        int[] path = new int[16];
+        path[0] = node;
+        collect(path, 1, rtn);
+        return rtn;
+    }
+
+    private void collect(int[] path, int length, List<int[]> paths) {
+        int node = path[length - 1];
+        //A top level pathway without parents is its own (single element) path, as in the database query
+        if (topLevelPathways.get(node) && (length > 1 || offsets[node] == offsets[node + 1])) {
+            paths.add(Arrays.copyOf(path, length));
+        }
+        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+            int parent = parents[i];
+            if (contains(path, length, parent)) continue; //Just in case the data contains a cycle
+            if (length == path.length) path = Arrays.copyOf(path, length * 2);
+            path[length] = parent;
+            collect(path, length + 1, paths);
+        }
+    }
+
+    private static boolean contains(int[] path, int length, int node) {
+        for (int i = 0; i < length; i++) {
+            if (path[i] == node) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,218 @@
+package org.reactome.server.service.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the usage reports of the exporters to the report service.
+ * <p>
+ * Reports are queued in a bounded in-memory queue (when it is full the report is dropped and counted)
+ * and a single worker sends them in batches, once the batch size is reached or the flush interval has
+ * elapsed. All of them go through one pooled HTTP client, so connections are reused.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class ExportReporter {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    @Value("${report.user:default}")
+    private String reportUser;
+
+    @Value("${report.password:default}")
+    private String reportPassword;
+
+    @Value("${report.url:http://localhost:8080/report}")
+    private String reportUrl;
+
+    @Value("${report.queue.size:10000}")
+    private int queueSize;
+
+    @Value("${report.batch.size:100}")
+    private int batchSize;
+
+    // Maximum time (in ms) a report waits in the queue before being sent
+    @Value("${report.flush.interval:5000}")
+    private long flushInterval;
+
+    private BlockingQueue<Report> queue;
+    private CloseableHttpClient client;
+    private Thread worker;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueSize);
+
+        CredentialsProvider provider = new BasicCredentialsProvider();
+        provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(reportUser, reportPassword));
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(2);
+        connectionManager.setDefaultMaxPerRoute(2);
+        RequestConfig config = RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(10000).build();
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultCredentialsProvider(provider)
+                .setDefaultRequestConfig(config)
+                .build();
+
+        worker = new Thread(this::run, "CS-ExportReporter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.interrupt();
+        try {
+            worker.join(flushInterval);
+            client.close();
+        } catch (InterruptedException | IOException e) {
+            //Nothing else to be done while shutting down
+        }
+        infoLogger.info("Content-Service ExportReporter stopped: {}", getMetrics());
+    }
+
+    /**
+     * Queues a report. It never blocks: when the queue is full the report is dropped
+     *
+     * @param path   the report path (relative to the report service url), i.e. "event/pdf/waiting"
+     * @param params the report parameters (null values are not sent)
+     * @return true if the report has been queued
+     */
+    public boolean report(String path, Map<String, String> params) {
+        if (queue.offer(new Report(path, params))) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        rtn.put("queued", queue.size());
+        rtn.put("sent", sent.get());
+        rtn.put("failed", failed.get());
+        rtn.put("dropped", dropped.get());
+        return rtn;
+    }
+
+    /**
+     * Extra information to be sent to report service in order to store potential target
+     *
+     * @return the "user-agent" and "ip-address" of the client
+     */
+    public static Map<String, String> getClientInformation(HttpServletRequest request) {
+        if (request == null) return null;
+
+        Map<String, String> result = new HashMap<>();
+        result.put("user-agent", request.getHeader("User-Agent"));
+        String remoteAddr = request.getHeader("X-FORWARDED-FOR"); // Client IP
+        if (!StringUtils.isEmpty(remoteAddr)) {
+            // The general format of the field is: X-Forwarded-For: client, proxy1, proxy2 ... we only want the client
+            remoteAddr = new StringTokenizer(remoteAddr, ",").nextToken().trim();
+        } else {
+            remoteAddr = request.getRemoteAddr();
+        }
+
+        result.put("ip-address", remoteAddr);
+        return result;
+    }
+
+    private void run() {
+        List<Report> batch = new ArrayList<>(batchSize);
+        boolean running = true;
+        while (running) {
+            try {
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) break;
+                    Report report = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (report == null) break;
+                    batch.add(report);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                //The pending reports are sent before leaving
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Report> batch) {
+        for (Report report : batch) {
+            try {
+                URIBuilder uriBuilder = new URIBuilder(reportUrl + "/" + report.path);
+                report.params.forEach((name, value) -> {
+                    if (value != null) uriBuilder.addParameter(name, value);
+                });
+                try (CloseableHttpResponse response = client.execute(new HttpGet(uriBuilder.build()))) {
+                    //The entity is consumed so the connection goes back to the pool
+                    EntityUtils.consume(response.getEntity());
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    if (statusCode == 200) {
+                        sent.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                        errorLogger.error("[REP001] The url {} returned the code {} and the report hasn't been created.", uriBuilder.toString(), statusCode);
+                    }
+                }
+            } catch (ConnectException e) {
+                //The service is down, so there is no point in trying the rest of the batch
+                int lost = batch.size() - batch.indexOf(report);
+                failed.addAndGet(lost);
+                errorLogger.error("[REP002] Report service is unavailable ({} reports lost)", lost);
+                return;
+            } catch (IOException | URISyntaxException e) {
+                failed.incrementAndGet();
+                errorLogger.error("[REP003] An unexpected error has occurred when saving a report");
+            }
+        }
+    }
+
+    private static class Report {
+        final String path;
+        final Map<String, String> params;
+
+        Report(String path, Map<String, String> params) {
+            this.path = path;
+            this.params = params;
+        }
+    }
+}
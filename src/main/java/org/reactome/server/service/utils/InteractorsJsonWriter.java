@@ -0,0 +1,46 @@
+package org.reactome.server.service.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.reactome.server.service.model.interactors.InteractorEntity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an Interactors JSON document entity by entity, so the whole object tree does not
+ * have to be kept in memory. The output has the same shape than a serialized Interactors
+ *
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+public class InteractorsJsonWriter implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final JsonGenerator generator;
+
+    public InteractorsJsonWriter(OutputStream out, String resource) throws IOException {
+        this.generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        //The response stream is closed by the container
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        if (resource != null) generator.writeStringField("resource", resource);
+        generator.writeArrayFieldStart("entities");
+    }
+
+    public void write(InteractorEntity entity) throws IOException {
+        MAPPER.writeValue(generator, entity);
+        //Entities are sent as soon as they are ready
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+}
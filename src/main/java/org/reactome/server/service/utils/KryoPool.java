@@ -0,0 +1,74 @@
+package org.reactome.server.service.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.shaded.org.objenesis.strategy.StdInstantiatorStrategy;
+import org.reactome.server.interactors.model.CustomPsicquicResource;
+import org.reactome.server.interactors.tuple.custom.CustomResource;
+import org.reactome.server.interactors.tuple.model.CustomInteraction;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kryo instances are not thread safe and expensive to create, so they are kept
+ * in a pool and reused. Every instance is created with the same explicit class
+ * registration, so the registration ids below MUST NOT change once files have
+ * been written with them (add new classes at the end and bump the file version)
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+class KryoPool {
+
+    private static final int FIRST_REGISTRATION_ID = 100;
+
+    private final Queue<Kryo> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idle = new AtomicInteger(0);
+    private final int maxIdle;
+
+    KryoPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    Kryo borrow() {
+        Kryo kryo = pool.poll();
+        if (kryo == null) return create();
+        idle.decrementAndGet();
+        return kryo;
+    }
+
+    void release(Kryo kryo) {
+        if (idle.incrementAndGet() <= maxIdle) {
+            pool.offer(kryo);
+        } else {
+            idle.decrementAndGet();
+        }
+    }
+
+    /**
+     * Files written before the registration was introduced carry the full class names
+     * and have to be read with an instance without registered classes
+     */
+    static Kryo createLegacy() {
+        Kryo kryo = new Kryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        return kryo;
+    }
+
+    private static Kryo create() {
+        Kryo kryo = createLegacy();
+        int id = FIRST_REGISTRATION_ID;
+        kryo.register(TupleResult.class, id++);
+        kryo.register(CustomResource.class, id++);
+        kryo.register(CustomInteraction.class, id++);
+        kryo.register(CustomPsicquicResource.class, id++);
+        kryo.register(ArrayList.class, id++);
+        kryo.register(HashMap.class, id++);
+        kryo.register(HashSet.class, id);
+        return kryo;
+    }
+}
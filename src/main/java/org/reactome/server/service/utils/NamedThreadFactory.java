@@ -0,0 +1,26 @@
+package org.reactome.server.service.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named after their pool, so they can be told apart in the thread dumps
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final String name;
+
+    public NamedThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
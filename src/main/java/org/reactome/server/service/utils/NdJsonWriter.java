@@ -0,0 +1,92 @@
+package org.reactome.server.service.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes newline delimited JSON (one JSON document per line), so large results can be sent
+ * (and processed by the client) element by element instead of as a single document
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class NdJsonWriter implements Closeable {
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE + ";charset=UTF-8");
+
+    //Flushed by the caller (i.e. once per chunk of results) instead of after every line
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final JsonGenerator generator;
+
+    public NdJsonWriter(OutputStream out) throws IOException {
+        this.generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        //The response stream is closed by the container
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        //Lines are only separated by the new line character
+        generator.setRootValueSeparator(null);
+    }
+
+    public void write(Object value) throws IOException {
+        MAPPER.writeValue(generator, value);
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Writes the entry as a single property object, i.e. {"key":value}
+     */
+    public void write(Object key, Object value) throws IOException {
+        write(Collections.singletonMap(key, value));
+    }
+
+    public void writeAll(Map<?, ?> map) throws IOException {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Writes every element of the collections (or every entry of the maps) as a line. The content
+     * is sent after every chunk and the next one is not requested until the previous has been
+     * written, so a slow client slows down the retrieval instead of the chunks piling up in memory
+     */
+    public static void write(Iterator<?> chunks, OutputStream out) throws IOException {
+        try (NdJsonWriter writer = new NdJsonWriter(out)) {
+            while (chunks.hasNext()) {
+                Object chunk = chunks.next();
+                if (chunk instanceof Map) {
+                    writer.writeAll((Map<?, ?>) chunk);
+                } else {
+                    for (Object object : (Collection<?>) chunk) writer.write(object);
+                }
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Sends what has been written so far
+     */
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,45 @@
+package org.reactome.server.service.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Render cache for the event PDF documents (only used when no analysis token is provided).
+ * Documents are too big for the heap front, so they are only kept in disk.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class PdfCache extends RenderCache {
+
+    // Only known for the documents rendered since the last restart
+    private final Map<String, Integer> pages = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PdfCache(@Value("${diagram.exporter.temp.folder}") String tempFolder,
+                    @Value("${pdf.cache.disk.size:1073741824}") long maxDiskSize,
+                    ResponseCache responseCache) {
+        super(tempFolder, "pdf", maxDiskSize, 0L, 0L);
+        setResponseCache(responseCache);
+    }
+
+    /**
+     * Without analysis the resource, analysis profile and expression column do not change the
+     * document, so they are not part of the key
+     */
+    public String getDocumentKey(String stId, Integer level, String diagramProfile, String serverName) {
+        return getKey("event", stId, level, diagramProfile, serverName);
+    }
+
+    public void setPages(String key, int pages) {
+        this.pages.put(key, pages);
+    }
+
+    public Integer getPages(String key) {
+        return pages.get(key);
+    }
+}
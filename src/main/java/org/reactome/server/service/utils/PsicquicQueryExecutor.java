@@ -0,0 +1,155 @@
+package org.reactome.server.service.utils;
+
+import org.reactome.server.service.exception.PsicquicContentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Shared, bounded executor for the queries sent to the remote PSICQUIC services.
+ * <p>
+ * Every resource gets a limited number of concurrent queries (the rest wait in the resource
+ * queue without taking a thread), every query has a timeout and a circuit breaker per resource
+ * short-circuits the resources that keep failing, so one slow service cannot take all the threads.
+ *
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+@Component
+public class PsicquicQueryExecutor {
+
+    private static Logger logger = LoggerFactory.getLogger("threadLogger");
+
+    private static final int QUEUE_SIZE = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final int maxPerResource;
+    private final long timeout;
+    private final int failureThreshold;
+    private final long openTime;
+
+    @Autowired
+    public PsicquicQueryExecutor(@Value("${psicquic.threads:40}") int threads,
+                                 @Value("${psicquic.threads.per.resource:8}") int maxPerResource,
+                                 @Value("${psicquic.timeout:20000}") long timeout,
+                                 @Value("${psicquic.breaker.failures:5}") int failureThreshold,
+                                 @Value("${psicquic.breaker.open:60000}") long openTime) {
+        this(threads, maxPerResource, timeout, failureThreshold, openTime, QUEUE_SIZE);
+    }
+
+    PsicquicQueryExecutor(int threads, int maxPerResource, long timeout, int failureThreshold, long openTime, int queueSize) {
+        this.maxPerResource = maxPerResource;
+        this.timeout = timeout;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory("CS-Psicquic"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CS-PsicquicTimeout"));
+    }
+
+    /**
+     * Schedules a query to a PSICQUIC resource
+     *
+     * @return a future completed with the result of the query or exceptionally when it fails,
+     * times out or the resource circuit is open
+     */
+    public <T> CompletableFuture<T> submit(String resource, Callable<T> query) {
+        CompletableFuture<T> rtn = new CompletableFuture<>();
+        CircuitBreaker breaker = breakers.computeIfAbsent(resource, r -> new CircuitBreaker(failureThreshold, openTime));
+        if (!breaker.allowRequest()) {
+            rtn.completeExceptionally(new PsicquicContentException(resource + " is temporarily unavailable"));
+            return rtn;
+        }
+
+        Lane lane = lanes.computeIfAbsent(resource, r -> new Lane());
+        AtomicReference<Future<?>> running = new AtomicReference<>();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                if (rtn.completeExceptionally(new PsicquicContentException(resource + " did not answer in time"))) {
+                    breaker.failure();
+                    //The blocked query is interrupted, so it gives back its thread and its resource slot
+                    running.get().cancel(true);
+                    logger.warn(String.format("PSICQUIC query to %s timed out after %d ms", resource, timeout));
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            try {
+                T result = query.call();
+                if (rtn.complete(result)) breaker.success();
+            } catch (Exception e) {
+                if (rtn.completeExceptionally(e)) breaker.failure();
+            } finally {
+                timeoutTask.cancel(false);
+                lane.done();
+            }
+        }, null);
+        running.set(task);
+        lane.submit(task, () -> {
+            //The resource has not been queried, so in case this was the half open trial it is given back
+            breaker.release();
+            rtn.completeExceptionally(new PsicquicContentException("Too many PSICQUIC queries, please try again later"));
+        });
+        return rtn;
+    }
+
+    public boolean isOpen(String resource) {
+        CircuitBreaker breaker = breakers.get(resource);
+        return breaker != null && breaker.isOpen();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+        logger.info("Content-Service PsicquicQueryExecutor stopped");
+    }
+
+    /**
+     * Keeps the queries of a resource that are waiting for one of its slots to be free
+     */
+    private class Lane {
+        private final Queue<Supplier<Boolean>> pending = new ArrayDeque<>();
+        private int running = 0;
+
+        synchronized void submit(Runnable task, Runnable onRejected) {
+            if (running < maxPerResource) {
+                running++;
+                if (!execute(task, onRejected)) running--;
+            } else {
+                pending.add(() -> execute(task, onRejected));
+            }
+        }
+
+        synchronized void done() {
+            //The slot is handed over to the next waiting query (if any)
+            Supplier<Boolean> next;
+            while ((next = pending.poll()) != null) {
+                if (next.get()) return;
+            }
+            running--;
+        }
+
+        private boolean execute(Runnable task, Runnable onRejected) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                onRejected.run();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package org.reactome.server.service.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level (in-heap and local disk) cache for the answers of the PSICQUIC resources, keyed by
+ * resource, accession and mode (details or summary).
+ * <p>
+ * Entries are fresh during the TTL. Afterwards, and until the stale time is reached, they are still
+ * served while a background query refreshes them. Older entries are removed (also from disk) and
+ * treated as missing. The disk tier is bounded and evicts the least recently used files.
+ *
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+@Component
+public class PsicquicResponseCache {
+
+    private static Logger logger = LoggerFactory.getLogger("threadLogger");
+
+    public enum Mode {DETAILS, SUMMARY}
+
+    /**
+     * Queries the resource for the given accessions
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        Map<String, T> load(Collection<String> accs) throws Exception;
+    }
+
+    private final PsicquicQueryExecutor executor;
+
+    private final Map<String, Entry> heap;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> misses = new ConcurrentHashMap<>();
+
+    private final File folder;
+    private final KryoPool kryoPool = new KryoPool(4);
+
+    // Path (relative to the folder) and size of the files in disk, in access order
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxDiskSize;
+    private long diskSize = 0;
+
+    private final long ttl;
+    private final long stale;
+
+    @Autowired
+    public PsicquicResponseCache(PsicquicQueryExecutor executor,
+                                 @Value("${psicquic.cache.folder:}") String folder,
+                                 @Value("${psicquic.cache.size:20000}") int maxEntries,
+                                 @Value("${psicquic.cache.ttl:86400000}") long ttl,
+                                 @Value("${psicquic.cache.stale:604800000}") long stale,
+                                 @Value("${psicquic.cache.disk.size:1073741824}") long maxDiskSize) {
+        this.executor = executor;
+        this.ttl = ttl;
+        this.stale = stale;
+        this.maxDiskSize = maxDiskSize;
+        this.heap = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        //The disk tier is only used when a folder has been configured
+        this.folder = folder.isEmpty() ? null : new File(folder);
+        if (this.folder != null && !this.folder.exists() && !this.folder.mkdirs()) {
+            logger.warn("PSICQUIC cache folder " + folder + " could not be created");
+        }
+        loadDisk();
+    }
+
+    /**
+     * Retrieves the cached answers. Stale ones are returned as well and refreshed in the background
+     *
+     * @return the cached values (the accessions not contained have to be queried and then put)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(String resource, Collection<String> accs, Mode mode, Loader<T> refresher) {
+        Map<String, T> rtn = new HashMap<>();
+        List<String> outdated = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String acc : accs) {
+            String key = getKey(resource, acc, mode);
+            Entry entry = heap.get(key);
+            if (entry == null) {
+                entry = readFromDisk(resource, acc, mode);
+                if (entry != null) heap.put(key, entry);
+            }
+            if (entry != null && now - entry.created > stale) {
+                heap.remove(key);
+                deleteFromDisk(resource, acc, mode);
+                entry = null;
+            }
+            if (entry == null) {
+                counter(misses, resource).incrementAndGet();
+                continue;
+            }
+            counter(hits, resource).incrementAndGet();
+            rtn.put(acc, (T) entry.value);
+            if (now - entry.created > ttl && refreshing.add(key)) outdated.add(acc);
+        }
+        if (!outdated.isEmpty()) refresh(resource, outdated, mode, refresher);
+        return rtn;
+    }
+
+    public <T> void putAll(String resource, Mode mode, Map<String, T> values) {
+        long now = System.currentTimeMillis();
+        values.forEach((acc, value) -> {
+            Entry entry = new Entry(value, now);
+            heap.put(getKey(resource, acc, mode), entry);
+            writeToDisk(resource, acc, mode, entry);
+        });
+    }
+
+    public double getHitRatio(String resource) {
+        long h = counter(hits, resource).get();
+        long total = h + counter(misses, resource).get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the hits, misses and hit ratio of every resource
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> rtn = new TreeMap<>();
+        for (String resource : misses.keySet()) {
+            Map<String, Number> aux = new LinkedHashMap<>();
+            aux.put("hits", counter(hits, resource).get());
+            aux.put("misses", counter(misses, resource).get());
+            aux.put("hitRatio", getHitRatio(resource));
+            rtn.put(resource, aux);
+        }
+        synchronized (disk) {
+            rtn.put("diskFiles", disk.size());
+            rtn.put("diskSize", diskSize);
+        }
+        return rtn;
+    }
+
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder("PSICQUIC cache hit ratio:");
+        for (String resource : new TreeSet<>(misses.keySet())) {
+            sb.append(String.format(" %s=%.2f", resource, getHitRatio(resource)));
+        }
+        return sb.toString();
+    }
+
+    private <T> void refresh(String resource, List<String> accs, Mode mode, Loader<T> refresher) {
+        executor.submit(resource, () -> refresher.load(accs)).whenComplete((values, t) -> {
+            if (t == null) {
+                putAll(resource, mode, values);
+            } else {
+                logger.debug(String.format("Stale PSICQUIC %s entries for %s could not be refreshed", mode, resource));
+            }
+            accs.forEach(acc -> refreshing.remove(getKey(resource, acc, mode)));
+        });
+    }
+
+    private Entry readFromDisk(String resource, String acc, Mode mode) {
+        if (folder == null) return null;
+        String path = getPath(resource, acc, mode);
+        synchronized (disk) {
+            if (disk.get(path) == null) return null;
+        }
+        File file = new File(folder, path);
+        Kryo kryo = kryoPool.borrow();
+        try (Input input = new Input(new FileInputStream(file))) {
+            return new Entry(kryo.readClassAndObject(input), file.lastModified());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error reading PSICQUIC cache file " + file.getName());
+            return null;
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+
+    private void writeToDisk(String resource, String acc, Mode mode, Entry entry) {
+        if (folder == null) return;
+        File file = getFile(resource, acc, mode);
+        Kryo kryo = kryoPool.borrow();
+        try {
+            File parent = file.getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) return;
+            File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+            try (Output output = new Output(new FileOutputStream(tmp))) {
+                kryo.writeClassAndObject(output, entry.value);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(entry.created);
+            putInDisk(getPath(resource, acc, mode), file.length());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error writing PSICQUIC cache file " + file.getName());
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+
+    private void putInDisk(String path, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(path, size);
+            if (previous != null) diskSize -= previous;
+            diskSize += size;
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskSize > maxDiskSize && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(path)) continue;
+                diskSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String aux : evicted) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(folder, aux).delete();
+        }
+    }
+
+    private void deleteFromDisk(String resource, String acc, Mode mode) {
+        if (folder == null) return;
+        String path = getPath(resource, acc, mode);
+        synchronized (disk) {
+            Long size = disk.remove(path);
+            if (size == null) return;
+            diskSize -= size;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        new File(folder, path).delete();
+    }
+
+    /**
+     * Indexes the files kept from previous runs (oldest first). Stale ones and the temporary files
+     * left behind by an interrupted write are deleted
+     */
+    private void loadDisk() {
+        if (folder == null || !folder.exists()) return;
+        long now = System.currentTimeMillis();
+        List<File> files;
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            files = paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("PSICQUIC cache folder " + folder + " could not be read");
+            return;
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp") || now - file.lastModified() > stale) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else {
+                putInDisk(folder.toPath().relativize(file.toPath()).toString(), file.length());
+            }
+        }
+        logger.info(String.format("PSICQUIC cache: %d files (%d bytes) in disk", disk.size(), diskSize));
+    }
+
+    private File getFile(String resource, String acc, Mode mode) {
+        return new File(folder, getPath(resource, acc, mode));
+    }
+
+    private static String getPath(String resource, String acc, Mode mode) {
+        return clean(resource) + "/" + mode.name().toLowerCase() + "/" + clean(acc) + ".bin";
+    }
+
+    /**
+     * Percent-encodes every character that is not safe in a file name, so different names never
+     * share a file. Dots are only kept after the first character, so a name is never "." or ".."
+     */
+    private static String clean(String name) {
+        StringBuilder rtn = new StringBuilder();
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            char c = (char) (bytes[i] & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || (c == '.' && i > 0)) {
+                rtn.append(c);
+            } else {
+                rtn.append('%').append(String.format("%02X", (int) c));
+            }
+        }
+        return rtn.toString();
+    }
+
+    private static String getKey(String resource, String acc, Mode mode) {
+        return resource + "|" + mode + "|" + acc;
+    }
+
+    private static AtomicLong counter(Map<String, AtomicLong> counters, String resource) {
+        return counters.computeIfAbsent(resource, r -> new AtomicLong());
+    }
+
+    private static class Entry {
+        final Object value;
+        final long created;
+
+        Entry(Object value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.reactome.server.service.utils;
+
+import org.reactome.server.service.exception.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for the raster exports. Every export takes a number of permits proportional
+ * to its estimated pixel budget and the sum of the running ones cannot exceed the maximum budget.
+ * <p>
+ * Requests are admitted strictly in arrival order (a big export at the head of the queue is not
+ * overtaken by smaller ones), the queue is bounded, waiting has a timeout and every client can only
+ * have a limited number of exports running or queued. Requests that cannot be admitted are rejected
+ * straight away with a ServiceUnavailableException that carries an estimated retry time.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class RasterAdmissionScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger("threadLogger");
+
+    private final long maxBudget;
+    private final int maxQueue;
+    private final int maxPerClient;
+    private final long maxWait;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Ticket> queue = new ArrayDeque<>();
+    private final Map<String, Integer> clients = new HashMap<>();
+    private long inFlightBudget = 0;
+    private int inFlight = 0;
+
+    // Metrics (guarded by the lock)
+    private long admitted = 0;
+    private long rejected = 0;
+    private long totalWait = 0;
+    private long longestWait = 0;
+    private double averageHold = 1000;
+
+    @Autowired
+    public RasterAdmissionScheduler(@Value("${raster.max.budget:120000000}") long maxBudget,
+                                    @Value("${raster.max.queue:100}") int maxQueue,
+                                    @Value("${raster.max.per.client:4}") int maxPerClient,
+                                    @Value("${raster.max.wait:30000}") long maxWait) {
+        this.maxBudget = maxBudget;
+        this.maxQueue = maxQueue;
+        this.maxPerClient = maxPerClient;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Blocks until the export can be run (or rejects it)
+     *
+     * @param client identifies the requester (IP address)
+     * @param weight estimated pixel budget of the export
+     * @return the permit that has to be closed once the export has finished
+     * @throws ServiceUnavailableException when the client, the queue or the waiting time limits are exceeded
+     */
+    public Permit acquire(String client, long weight) throws InterruptedException {
+        // A request bigger than the whole budget runs alone instead of waiting forever
+        long w = Math.max(1, Math.min(weight, maxBudget));
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (clients.getOrDefault(client, 0) >= maxPerClient) {
+                throw reject("Too many image exports in progress for " + client);
+            }
+            if (queue.isEmpty() && fits(w)) {
+                return admit(client, w, start);
+            }
+            if (queue.size() >= maxQueue) {
+                throw reject("Too many image exports waiting");
+            }
+
+            Ticket ticket = new Ticket(lock.newCondition());
+            queue.addLast(ticket);
+            clients.merge(client, 1, Integer::sum);
+            boolean admitted = false;
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (queue.peekFirst() != ticket || !fits(w)) {
+                    if (nanos <= 0L) throw reject("Image export could not start in time");
+                    nanos = ticket.condition.awaitNanos(nanos);
+                }
+                queue.removeFirst();
+                admitted = true;
+            } finally {
+                if (!admitted) {
+                    queue.remove(ticket);
+                    release(client);
+                }
+                // Either the next one can also run or the head has changed
+                signalHead();
+            }
+            // The client slot was already taken while queued
+            clients.merge(client, -1, Integer::sum);
+            return admit(client, w, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInFlightBudget() {
+        lock.lock();
+        try {
+            return inFlightBudget;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        lock.lock();
+        try {
+            Map<String, Number> rtn = new LinkedHashMap<>();
+            rtn.put("queueDepth", queue.size());
+            rtn.put("inFlight", inFlight);
+            rtn.put("inFlightBudget", inFlightBudget);
+            rtn.put("maxBudget", maxBudget);
+            rtn.put("admitted", admitted);
+            rtn.put("rejected", rejected);
+            rtn.put("averageWait", admitted == 0 ? 0 : totalWait / admitted);
+            rtn.put("longestWait", longestWait);
+            return rtn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit admit(String client, long weight, long start) {
+        long wait = System.currentTimeMillis() - start;
+        admitted++;
+        totalWait += wait;
+        longestWait = Math.max(longestWait, wait);
+        inFlight++;
+        inFlightBudget += weight;
+        clients.merge(client, 1, Integer::sum);
+        return new Permit(client, weight);
+    }
+
+    private void release(String client) {
+        if (clients.merge(client, -1, Integer::sum) <= 0) clients.remove(client);
+    }
+
+    private boolean fits(long weight) {
+        return inFlightBudget + weight <= maxBudget;
+    }
+
+    private void signalHead() {
+        Ticket head = queue.peekFirst();
+        if (head != null) head.condition.signal();
+    }
+
+    private ServiceUnavailableException reject(String message) {
+        rejected++;
+        // Rough estimation of the time needed to drain the queue
+        long retryAfter = (long) Math.ceil(averageHold * (queue.size() + 1) / Math.max(1, inFlight) / 1000);
+        logger.debug(String.format("%s (queue: %d, in flight budget: %d)", message, queue.size(), inFlightBudget));
+        return new ServiceUnavailableException(message + ". Please try again later", Math.max(1, retryAfter));
+    }
+
+    private static class Ticket {
+        final Condition condition;
+
+        Ticket(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+        private final String client;
+        private final long weight;
+        private final long start = System.currentTimeMillis();
+        private boolean closed = false;
+
+        private Permit(String client, long weight) {
+            this.client = client;
+            this.weight = weight;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                inFlight--;
+                inFlightBudget -= weight;
+                release(client);
+                averageHold = 0.9 * averageHold + 0.1 * (System.currentTimeMillis() - start);
+                signalHead();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
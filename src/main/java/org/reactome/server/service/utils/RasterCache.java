@@ -0,0 +1,44 @@
+package org.reactome.server.service.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Render cache for the diagram, reaction and pathways overview image exports (only used when no analysis token is provided)
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class RasterCache extends RenderCache {
+
+    @Autowired
+    public RasterCache(@Value("${diagram.exporter.temp.folder}") String tempFolder,
+                       @Value("${raster.cache.disk.size:2147483648}") long maxDiskSize,
+                       @Value("${raster.cache.heap.size:67108864}") long maxHeapSize,
+                       @Value("${raster.cache.heap.entry:262144}") long maxHeapEntry,
+                       ResponseCache responseCache) {
+        super(tempFolder, "raster", maxDiskSize, maxHeapSize, maxHeapEntry);
+        setResponseCache(responseCache);
+    }
+
+    public String getDiagramKey(String stId, String ext, Collection<String> sel, String flg, Boolean flgInteractors,
+                                Boolean title, Integer quality, Boolean ehld, Integer margin,
+                                String diagramProfile, String analysisProfile, String resource, Integer expColumn) {
+        return getKey("diagram", stId, ext.toLowerCase(), sel, flg, flgInteractors, title, quality, ehld, margin, diagramProfile, analysisProfile, resource, expColumn);
+    }
+
+    public String getReactionKey(String stId, String ext, Collection<String> sel, String flg, Boolean flgInteractors,
+                                 Boolean title, Integer quality, Integer margin,
+                                 String diagramProfile, String analysisProfile, String resource, Integer expColumn) {
+        return getKey("reaction", stId, ext.toLowerCase(), sel, flg, flgInteractors, title, quality, margin, diagramProfile, analysisProfile, resource, expColumn);
+    }
+
+    public String getFireworksKey(String species, String ext, Collection<String> sel, String flg, Boolean flgInteractors,
+                                  Boolean title, Integer quality, Integer margin, String profile,
+                                  String resource, Integer expColumn, Boolean coverage) {
+        return getKey("fireworks", species, ext.toLowerCase(), sel, flg, flgInteractors, title, quality, margin, profile, resource, expColumn, coverage);
+    }
+}
@@ -0,0 +1,394 @@
+package org.reactome.server.service.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.DigestUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed cache of rendered files. Entries are named after a hash of the parameters used
+ * to render them and stored in [temp folder]/[DB version]/[type], so a new release starts empty.
+ * <p>
+ * The disk store is bounded and evicts the least recently used files. Files being sent are not
+ * evicted until they have been sent. Small files (thumbnails) are also kept in a heap front. Disk
+ * hits are copied to the response stream: it is not a file or socket channel, so the copy goes
+ * through a buffer (there is no zero-copy transfer here). Folders of previous versions are deleted
+ * once the version changes.
+ * <p>
+ * Files rendered in advance (i.e. by the pre-rendering) are pinned: they are kept in a separate
+ * folder that is not part of the LRU, so they are neither evicted nor evict the requested ones.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class RenderCache {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private static final String PINNED = "pinned";
+
+    private final String tempFolder;
+    private final String type;
+    private final long maxDiskSize;
+    private final long maxHeapSize;
+    private final long maxHeapEntry;
+
+    private ResponseCache responseCache;
+
+    // Both in access order, so the first entry is the least recently used one
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskSize = 0;
+    private long heapSize = 0;
+
+    // Keys of the files in the pinned folder, which are never evicted
+    private final Set<String> pinned = new HashSet<>();
+    private long pinnedSize = 0;
+
+    // Files being sent, which are not evicted in the meantime (key to number of readers)
+    private final Map<String, Integer> inUse = new HashMap<>();
+
+    private Integer version = null;
+    private File folder;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RenderCache(String tempFolder, String type, long maxDiskSize, long maxHeapSize, long maxHeapEntry) {
+        this.tempFolder = tempFolder;
+        this.type = type;
+        this.maxDiskSize = maxDiskSize;
+        this.maxHeapSize = maxHeapSize;
+        this.maxHeapEntry = maxHeapEntry;
+    }
+
+    /**
+     * @param parts the parameters used for rendering. Collections are sorted, so the order in which
+     *              the elements were provided does not change the key
+     * @return the canonical key for the given parameters in the current release
+     */
+    public String getKey(Object... parts) {
+        StringBuilder sb = new StringBuilder(type).append('\u0000').append(getVersion());
+        for (Object part : parts) {
+            sb.append('\u0000');
+            if (part instanceof Collection) {
+                List<String> aux = new ArrayList<>();
+                for (Object o : (Collection<?>) part) aux.add(String.valueOf(o));
+                Collections.sort(aux);
+                sb.append(aux);
+            } else if (part != null) {
+                sb.append(part);
+            }
+        }
+        return DigestUtils.md5DigestAsHex(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the cached file to the output stream (if present)
+     *
+     * @return true if the file was cached and has been sent
+     */
+    public boolean serve(String key, OutputStream out) throws IOException {
+        return serve(key, () -> out);
+    }
+
+    /**
+     * Sends the cached file (if present) to the output stream provided by the target, which is only
+     * requested on a hit, so the headers of a response can be set right before sending it
+     *
+     * @return true if the file was cached and has been sent
+     */
+    public boolean serve(String key, Target target) throws IOException {
+        byte[] bytes = getFromHeap(key);
+        if (bytes != null) {
+            hits.incrementAndGet();
+            target.get().write(bytes);
+            return true;
+        }
+
+        File file = getPinned(key);
+        if (file != null) {
+            long size = transfer(file, target.get());
+            if (size <= maxHeapEntry) putInHeap(key, Files.readAllBytes(file.toPath()));
+            hits.incrementAndGet();
+            return true;
+        }
+
+        file = acquireFromDisk(key);
+        if (file != null) {
+            try {
+                long size = transfer(file, target.get());
+                if (size <= maxHeapEntry) putInHeap(key, Files.readAllBytes(file.toPath()));
+                hits.incrementAndGet();
+                return true;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                //Deleted outside the cache
+                removeFromDisk(key, file);
+            } finally {
+                release(key);
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the cached file (null if not present). Meant for callers that send it later on
+     */
+    public File getFile(String key) {
+        File file;
+        synchronized (this) {
+            checkVersion();
+            file = getFromDisk(key);
+        }
+        if (file != null && file.exists()) {
+            hits.incrementAndGet();
+            return file;
+        }
+        if (file != null) removeFromDisk(key, file);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return a file (in the cache folder) where the content can be rendered and then passed to store
+     */
+    public File createTempFile() throws IOException {
+        return File.createTempFile("render", ".tmp", getFolder());
+    }
+
+    /**
+     * Moves the rendered file into the cache and sends it to the output stream
+     */
+    public void store(String key, File rendered, OutputStream out) throws IOException {
+        File file;
+        try {
+            file = put(key, rendered, true);
+        } catch (IOException e) {
+            errorLogger.error("Could not store the rendered file " + key + " in the " + type + " cache", e);
+            try {
+                transfer(rendered, out);
+            } finally {
+                Files.deleteIfExists(rendered.toPath());
+            }
+            return;
+        }
+        try {
+            if (file.length() <= maxHeapEntry) putInHeap(key, Files.readAllBytes(file.toPath()));
+            transfer(file, out);
+        } finally {
+            release(key);
+        }
+    }
+
+    /**
+     * Moves the rendered file into the cache (the heap front is only filled when the file is requested)
+     *
+     * @return the cached file
+     */
+    public File put(String key, File rendered) throws IOException {
+        return put(key, rendered, false);
+    }
+
+    /**
+     * @param acquire true to keep the file from being evicted until it is released
+     */
+    private File put(String key, File rendered, boolean acquire) throws IOException {
+        File file = new File(getFolder(), key);
+        Files.move(rendered.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        putInDisk(key, file.length(), acquire);
+        return file;
+    }
+
+    /**
+     * Moves the rendered file into the pinned folder, where it is kept (out of the LRU) until the version changes
+     *
+     * @return the pinned file
+     */
+    public File pin(String key, File rendered) throws IOException {
+        File pinnedFolder = new File(getFolder(), PINNED);
+        if (!pinnedFolder.exists() && !pinnedFolder.mkdirs()) throw new IOException("Could not create the folder for the pinned " + type + " files");
+        File file = new File(pinnedFolder, key);
+        Files.move(rendered.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) {
+            if (pinned.add(key)) pinnedSize += file.length();
+        }
+        return file;
+    }
+
+    public synchronized boolean contains(String key) {
+        checkVersion();
+        return heap.containsKey(key) || pinned.contains(key) || disk.containsKey(key);
+    }
+
+    public String getStatistics() {
+        long h = hits.get(), total = h + misses.get();
+        return String.format("%s cache: %d hits out of %d requests, %d files (%d bytes) in disk, %d pinned files (%d bytes), %d bytes in heap",
+                type, h, total, disk.size(), diskSize, pinned.size(), pinnedSize, heapSize);
+    }
+
+    /**
+     * Copies the file to the output stream
+     *
+     * @return the number of bytes sent
+     */
+    public static long transfer(File file, OutputStream out) throws IOException {
+        return Files.copy(file.toPath(), out);
+    }
+
+    private synchronized byte[] getFromHeap(String key) {
+        checkVersion();
+        return heap.get(key);
+    }
+
+    private synchronized void putInHeap(String key, byte[] bytes) {
+        byte[] previous = heap.put(key, bytes);
+        if (previous != null) heapSize -= previous.length;
+        heapSize += bytes.length;
+        Iterator<byte[]> it = heap.values().iterator();
+        while (heapSize > maxHeapSize && it.hasNext()) {
+            heapSize -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private synchronized File getPinned(String key) {
+        if (!pinned.contains(key)) return null;
+        return new File(new File(folder, PINNED), key);
+    }
+
+    /**
+     * @return the cached file (null if not present), which is not evicted until it is released
+     */
+    private synchronized File acquireFromDisk(String key) {
+        File rtn = getFromDisk(key);
+        if (rtn != null) inUse.merge(key, 1, Integer::sum);
+        return rtn;
+    }
+
+    private synchronized void release(String key) {
+        inUse.computeIfPresent(key, (k, readers) -> readers > 1 ? readers - 1 : null);
+    }
+
+    private synchronized File getFromDisk(String key) {
+        if (disk.get(key) == null) return null;
+        File file = new File(folder, key);
+        //Keeps the LRU order between restarts
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private synchronized void putInDisk(String key, long size, boolean acquire) {
+        Long previous = disk.put(key, size);
+        if (previous != null) diskSize -= previous;
+        diskSize += size;
+        if (acquire) inUse.merge(key, 1, Integer::sum);
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskSize > maxDiskSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(key) || inUse.containsKey(eldest.getKey())) continue;
+            diskSize -= eldest.getValue();
+            it.remove();
+            if (!new File(folder, eldest.getKey()).delete()) {
+                infoLogger.debug("Could not delete the evicted " + type + " file " + eldest.getKey());
+            }
+        }
+    }
+
+    private synchronized void removeFromDisk(String key, File file) {
+        if (!file.getParentFile().equals(folder)) return;
+        Long size = disk.remove(key);
+        if (size != null) diskSize -= size;
+    }
+
+    /**
+     * @return the folder where the files of the current database version are kept
+     */
+    public synchronized File getFolder() {
+        checkVersion();
+        return folder;
+    }
+
+    /**
+     * The cache is scoped to the database version. When it changes, the folder of the new
+     * version is (re)loaded and the heap front is emptied
+     */
+    private synchronized void checkVersion() {
+        Integer current = getVersion();
+        if (Objects.equals(version, current)) return;
+        version = current;
+        folder = new File(tempFolder, version + "/" + type);
+        if (!folder.exists() && !folder.mkdirs()) {
+            errorLogger.error("Could not create the folder for the " + type + " cache");
+        }
+        heap.clear();
+        heapSize = 0;
+        disk.clear();
+        diskSize = 0;
+        inUse.clear();
+        pinned.clear();
+        pinnedSize = 0;
+        deletePreviousVersions();
+        File[] aux = new File(folder, PINNED).listFiles(File::isFile);
+        if (aux != null) {
+            for (File file : aux) {
+                pinned.add(file.getName());
+                pinnedSize += file.length();
+            }
+        }
+        File[] files = folder.listFiles(File::isFile);
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                FileUtils.deleteQuietly(file); //Left behind by an interrupted rendering
+            } else {
+                disk.put(file.getName(), file.length());
+                diskSize += file.length();
+            }
+        }
+        infoLogger.info(getStatistics());
+    }
+
+    /**
+     * Deletes the [type] folder of every other version (and the version folder once it is empty)
+     */
+    private void deletePreviousVersions() {
+        if (version == null) return;
+        File[] versions = new File(tempFolder).listFiles(f -> f.isDirectory() && f.getName().matches("\\d+") && !f.getName().equals(String.valueOf(version)));
+        if (versions == null) return;
+        for (File previous : versions) {
+            File aux = new File(previous, type);
+            if (!aux.exists()) continue;
+            if (FileUtils.deleteQuietly(aux)) infoLogger.info("Deleted the " + type + " cache of version " + previous.getName());
+            String[] rest = previous.list();
+            //noinspection ResultOfMethodCallIgnored
+            if (rest != null && rest.length == 0) previous.delete();
+        }
+    }
+
+    /**
+     * @return the database version as known by the response cache, which only checks it once in a while
+     */
+    private Integer getVersion() {
+        return responseCache.getVersion();
+    }
+
+    @FunctionalInterface
+    public interface Target {
+        OutputStream get() throws IOException;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+}
@@ -0,0 +1,264 @@
+package org.reactome.server.service.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.reactome.server.graph.service.GeneralService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialised responses of the read-only endpoints. The content does not change within a release,
+ * so entries are kept until the database version changes, when the cache empties itself.
+ * <p>
+ * The heap tier is bounded and evicts the least recently used responses. When a folder is
+ * configured, responses are also kept in disk ([folder]/[DB version]), also bounded.
+ * <p>
+ * The database version is checked in the background, so requests only read the last known one.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component
+public class ResponseCache {
+
+    private static final Logger infoLogger = LoggerFactory.getLogger("infoLogger");
+    private static final Logger errorLogger = LoggerFactory.getLogger("errorLogger");
+
+    private final long maxHeapSize;
+    private final long maxDiskSize;
+    private final long versionCheck;
+    private final File baseFolder;
+
+    private GeneralService generalService;
+
+    // Both in access order, so the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapSize = 0;
+    private long diskSize = 0;
+
+    // Only written while holding the lock, read without it
+    private volatile Integer version = null;
+    private ScheduledExecutorService versionChecker;
+    private File folder;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public ResponseCache(@Value("${data.cache.heap.size:134217728}") long maxHeapSize,
+                         @Value("${data.cache.folder:}") String folder,
+                         @Value("${data.cache.disk.size:1073741824}") long maxDiskSize,
+                         @Value("${data.cache.version.check:60000}") long versionCheck) {
+        this.maxHeapSize = maxHeapSize;
+        this.maxDiskSize = maxDiskSize;
+        this.versionCheck = versionCheck;
+        //The disk tier is only used when a folder has been configured
+        this.baseFolder = folder.isEmpty() || folder.startsWith("${") ? null : new File(folder);
+    }
+
+    @PostConstruct
+    public void init() {
+        versionChecker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CS-ResponseCacheVersion"));
+        long delay = Math.max(1L, versionCheck);
+        versionChecker.scheduleWithFixedDelay(this::checkVersion, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        versionChecker.shutdownNow();
+    }
+
+    /**
+     * @return the current database version (refreshed in the background once per configured interval)
+     */
+    public Integer getVersion() {
+        Integer current = version;
+        if (current != null) return current;
+        //Only until the version has been retrieved for the first time
+        synchronized (this) {
+            if (version == null) reset(generalService.getDBInfo().getVersion());
+            return version;
+        }
+    }
+
+    /**
+     * Empties the cache when the database version has changed. The last known version is kept
+     * when the database cannot be reached
+     */
+    private void checkVersion() {
+        try {
+            Integer current = generalService.getDBInfo().getVersion();
+            if (current == null || Objects.equals(version, current)) return;
+            synchronized (this) {
+                if (!Objects.equals(version, current)) reset(current);
+            }
+        } catch (RuntimeException e) {
+            errorLogger.warn("Could not check the database version, keeping version " + version + ": " + e.getMessage());
+        }
+    }
+
+    public Entry get(String key) {
+        Entry entry = getFromHeap(key);
+        if (entry == null) entry = getFromDisk(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public void put(String key, String contentType, byte[] content) {
+        Entry entry = new Entry(contentType, content);
+        putInHeap(key, entry);
+        putInDisk(key, entry);
+    }
+
+    public String getStatistics() {
+        long h = hits.get(), total = h + misses.get();
+        synchronized (this) {
+            return String.format("Response cache: %d hits out of %d requests, %d responses (%d bytes) in heap, %d responses (%d bytes) in disk",
+                    h, total, heap.size(), heapSize, disk.size(), diskSize);
+        }
+    }
+
+    private synchronized Entry getFromHeap(String key) {
+        return heap.get(key);
+    }
+
+    private synchronized void putInHeap(String key, Entry entry) {
+        Entry previous = heap.put(key, entry);
+        if (previous != null) heapSize -= previous.content.length;
+        heapSize += entry.content.length;
+        Iterator<Entry> it = heap.values().iterator();
+        while (heapSize > maxHeapSize && it.hasNext()) {
+            heapSize -= it.next().content.length;
+            it.remove();
+        }
+    }
+
+    private Entry getFromDisk(String key) {
+        File file;
+        synchronized (this) {
+            if (folder == null || disk.get(key) == null) return null;
+            file = new File(folder, key);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            String contentType = in.readUTF();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            Entry entry = new Entry(contentType, content);
+            putInHeap(key, entry);
+            return entry;
+        } catch (IOException e) {
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) diskSize -= size;
+            }
+            return null;
+        }
+    }
+
+    private void putInDisk(String key, Entry entry) {
+        File target;
+        synchronized (this) {
+            if (folder == null) return;
+            target = folder;
+        }
+        File file = new File(target, key);
+        try {
+            File tmp = File.createTempFile(key, ".tmp", target);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeUTF(entry.contentType);
+                out.writeInt(entry.content.length);
+                out.write(entry.content);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            errorLogger.warn("Could not write the cached response " + key + ": " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            //The version might have changed in the meantime
+            if (!target.equals(folder)) return;
+            Long previous = disk.put(key, file.length());
+            if (previous != null) diskSize -= previous;
+            diskSize += file.length();
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskSize > maxDiskSize && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                diskSize -= eldest.getValue();
+                it.remove();
+                FileUtils.deleteQuietly(new File(folder, eldest.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Empties the cache and (re)loads the disk tier of the given version
+     */
+    private void reset(Integer current) {
+        if (version != null) infoLogger.info("{} (version {} discarded)", getStatistics(), version);
+        version = current;
+        heap.clear();
+        heapSize = 0;
+        disk.clear();
+        diskSize = 0;
+        if (baseFolder == null) return;
+
+        folder = new File(baseFolder, String.valueOf(version));
+        if (!folder.exists() && !folder.mkdirs()) {
+            errorLogger.error("Could not create the folder for the response cache");
+            folder = null;
+            return;
+        }
+        File[] files = folder.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                FileUtils.deleteQuietly(file); //Left behind by an interrupted write
+            } else {
+                disk.put(file.getName(), file.length());
+                diskSize += file.length();
+            }
+        }
+    }
+
+    public static class Entry {
+        private final String contentType;
+        private final byte[] content;
+
+        Entry(String contentType, byte[] content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    @Autowired
+    public void setGeneralService(GeneralService generalService) {
+        this.generalService = generalService;
+    }
+}
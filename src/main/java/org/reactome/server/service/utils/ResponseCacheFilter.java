@@ -0,0 +1,221 @@
+package org.reactome.server.service.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Answers the GET requests to the read-only graph endpoints (/data/**) from the {@link ResponseCache}
+ * and adds strong ETags derived from the release, so clients and proxies can revalidate with
+ * If-None-Match and get a 304 (Not Modified) without the database being queried. A 304 is only
+ * sent when the successful answer for the request is cached.
+ * <p>
+ * Responses are sent while they are produced (streamed answers are not held back) and copied on
+ * the side. Only complete, successful responses under the size limit are cached.
+ * <p>
+ * Declared in web.xml through a DelegatingFilterProxy so it is managed by Spring.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Component("responseCacheFilter")
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+    private static final String PATH = "/data/";
+
+    @Value("${data.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${data.cache.max.entry:2097152}")
+    private int maxEntry;
+
+    private ResponseCache responseCache;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !"GET".equals(request.getMethod())) return true;
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !path.startsWith(PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Integer version = responseCache.getVersion();
+        String key = getKey(request, version);
+        String eTag = "\"" + version + "-" + key + "\"";
+        response.addHeader("Vary", "Accept");
+
+        ResponseCache.Entry entry = responseCache.get(key);
+        if (entry != null) {
+            response.setHeader("ETag", eTag);
+            //Only a successful answer is cached, so a matching ETag is still valid within the release
+            if (matches(request.getHeader("If-None-Match"), eTag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setContentType(entry.getContentType());
+            response.setContentLength(entry.getContent().length);
+            response.getOutputStream().write(entry.getContent());
+            return;
+        }
+
+        CachingResponseWrapper wrapper = new CachingResponseWrapper(response, eTag);
+        filterChain.doFilter(request, wrapper);
+
+        //Asynchronous (i.e. streamed) answers are still being written at this point, so they are neither flushed nor kept
+        if (isAsyncStarted(request)) {
+            wrapper.discard();
+            return;
+        }
+        wrapper.flushBuffer();
+        if (wrapper.isCacheable()) responseCache.put(key, wrapper.getContentType(), wrapper.getContent());
+    }
+
+    /**
+     * The key contains the release, the path, the (sorted) query parameters and the accepted
+     * content types, since they all determine the answer
+     */
+    private String getKey(HttpServletRequest request, Integer version) {
+        StringBuilder sb = new StringBuilder().append(version).append('\u0000').append(request.getRequestURI());
+        Map<String, String[]> params = new TreeMap<>(request.getParameterMap());
+        params.forEach((name, values) -> sb.append('\u0000').append(name).append('=').append(Arrays.toString(values)));
+        String accept = request.getHeader("Accept");
+        sb.append('\u0000').append(accept != null ? accept : "*/*");
+        return DigestUtils.md5DigestAsHex(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String aux = candidate.trim();
+            if (aux.equals(eTag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the response as usual while keeping a copy (up to the maximum entry size). The ETag
+     * is added right before the first byte when the response is a success
+     */
+    private class CachingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final String eTag;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private volatile boolean overflow = false;
+        private boolean started = false;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CachingResponseWrapper(HttpServletResponse response, String eTag) {
+            super(response);
+            this.eTag = eTag;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        start();
+                        target.write(b);
+                        if (keep(1)) copy.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        start();
+                        target.write(b, off, len);
+                        if (keep(len)) copy.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        target.flush();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        target.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) writer.flush();
+            super.flushBuffer();
+        }
+
+        boolean isCacheable() {
+            //Encoded (i.e. compressed) content depends on the Accept-Encoding of the request, which is not part of the key
+            return getStatus() == HttpServletResponse.SC_OK && !overflow && getContentType() != null
+                    && getHeader("Content-Encoding") == null && copy.size() > 0;
+        }
+
+        byte[] getContent() {
+            return copy.toByteArray();
+        }
+
+        void discard() {
+            overflow = true;
+            copy.reset();
+        }
+
+        private void start() {
+            if (started) return;
+            started = true;
+            //Answers that are not kept (i.e. streamed) might come with an ETag of their own
+            if (getStatus() == HttpServletResponse.SC_OK && !isCommitted() && getHeader("ETag") == null) setHeader("ETag", eTag);
+        }
+
+        private boolean keep(int len) {
+            if (overflow) return false;
+            if (copy.size() + len > maxEntry) {
+                overflow = true;
+                copy.reset();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    @Autowired
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+}
@@ -0,0 +1,112 @@
+package org.reactome.server.service.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded in-heap LRU cache placed in front of the tuple token files.
+ * Every entry carries an estimated weight (in bytes) and the least recently
+ * used entries are evicted once the total weight exceeds the maximum.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+class TupleCache {
+
+    private final Map<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long maxWeight;
+    private long weight = 0L;
+
+    TupleCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    synchronized Object get(String token) {
+        Entry entry = cache.get(token);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.object;
+    }
+
+    synchronized void put(String token, Object object, long weight) {
+        if (weight > maxWeight) return; //Too big to be kept in memory, it will always be read from disk
+        Entry previous = cache.put(token, new Entry(object, weight));
+        if (previous != null) this.weight -= previous.weight;
+        this.weight += weight;
+        evict();
+    }
+
+    /**
+     * Records an access to the token once the given interval has passed since the previous one
+     *
+     * @return true if the access has been recorded (so the caller acts on it)
+     */
+    synchronized boolean touch(String token, long interval) {
+        Entry entry = cache.get(token);
+        if (entry == null) return false;
+        long now = System.currentTimeMillis();
+        if (now - entry.touched < interval) return false;
+        entry.touched = now;
+        return true;
+    }
+
+    synchronized void invalidate(String token) {
+        Entry entry = cache.remove(token);
+        if (entry != null) weight -= entry.weight;
+    }
+
+    synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> it = cache.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            weight -= it.next().weight;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static class Entry {
+        final Object object;
+        final long weight;
+        long touched;
+
+        Entry(Object object, long weight) {
+            this.object = object;
+            this.weight = weight;
+            this.touched = System.currentTimeMillis();
+        }
+    }
+}
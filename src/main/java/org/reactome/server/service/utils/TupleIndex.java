@@ -0,0 +1,191 @@
+package org.reactome.server.service.utils;
+
+import org.reactome.server.interactors.model.Interaction;
+import org.reactome.server.interactors.model.InteractionDetails;
+import org.reactome.server.interactors.model.Interactor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Inverted accession index of the custom interactions of a token. The file is memory mapped
+ * and queried in place, so only the interactions of the requested accessions are inflated.
+ * <p>
+ * Every accession points to a contiguous slice of interactions that is already converted
+ * (the accession is always in side A) and sorted, so a query is just a binary search plus
+ * reading the slice.
+ * <p>
+ * Layout (all the offsets are absolute positions in the file)
+ * <pre>
+ *   header    : magic, version, #accessions
+ *   accessions: sorted by accession, each (accession offset, slice offset, #interactions)
+ *   data      : accessions and slices of packed interactions (ids, aliases, score and evidences)
+ * </pre>
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class TupleIndex {
+
+    private static final byte[] MAGIC = {'R', 'T', 'X'};
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = MAGIC.length + 1 + Integer.BYTES;
+    private static final int ACCESSION_ENTRY_SIZE = 3 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int accessions;
+
+    private TupleIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        int version = buffer.get();
+        if (!Arrays.equals(MAGIC, magic) || version != VERSION) {
+            throw new IOException("Unsupported tuple index format");
+        }
+        this.accessions = buffer.getInt();
+    }
+
+    public static TupleIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            //The mapping remains valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TupleIndex(buffer);
+        }
+    }
+
+    /**
+     * @return the sorted interactions of the accession (empty list if none)
+     */
+    public List<Interaction> get(String accession) {
+        int pos = find(accession);
+        if (pos < 0) return Collections.emptyList();
+        int entry = HEADER_SIZE + pos * ACCESSION_ENTRY_SIZE;
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(buffer.getInt(entry + Integer.BYTES));
+        int count = buffer.getInt(entry + 2 * Integer.BYTES);
+        List<Interaction> rtn = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rtn.add(readInteraction(slice));
+        }
+        return rtn;
+    }
+
+    private int find(String accession) {
+        int low = 0, high = accessions - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ByteBuffer aux = buffer.duplicate();
+            aux.position(buffer.getInt(HEADER_SIZE + mid * ACCESSION_ENTRY_SIZE));
+            int cmp = readString(aux).compareTo(accession);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static Interaction readInteraction(ByteBuffer buffer) {
+        Interaction interaction = new Interaction();
+
+        Interactor interactorA = new Interactor();
+        interactorA.setAcc(readString(buffer));
+        interactorA.setAlias(readString(buffer));
+        interaction.setInteractorA(interactorA);
+
+        Interactor interactorB = new Interactor();
+        interactorB.setAcc(readString(buffer));
+        interactorB.setAlias(readString(buffer));
+        interaction.setInteractorB(interactorB);
+
+        if (buffer.get() != 0) interaction.setIntactScore(buffer.getDouble());
+
+        int evidences = buffer.getInt();
+        for (int i = 0; i < evidences; i++) {
+            interaction.addInteractionDetails(new InteractionDetails(readString(buffer)));
+        }
+        return interaction;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param interactions the sorted interactions of each accession, with the accession in side A
+     */
+    public static void write(File file, SortedMap<String, List<Interaction>> interactions) throws IOException {
+        int dataStart = HEADER_SIZE + interactions.size() * ACCESSION_ENTRY_SIZE;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        int[] accessionOffsets = new int[interactions.size()];
+        int[] sliceOffsets = new int[interactions.size()];
+        int k = 0;
+        for (Map.Entry<String, List<Interaction>> entry : interactions.entrySet()) {
+            accessionOffsets[k] = dataStart + data.size();
+            writeString(data, entry.getKey());
+            sliceOffsets[k++] = dataStart + data.size();
+            for (Interaction interaction : entry.getValue()) {
+                writeInteraction(data, interaction);
+            }
+        }
+        data.flush();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.writeInt(interactions.size());
+            k = 0;
+            for (List<Interaction> slice : interactions.values()) {
+                out.writeInt(accessionOffsets[k]);
+                out.writeInt(sliceOffsets[k++]);
+                out.writeInt(slice.size());
+            }
+            bytes.writeTo(out);
+        }
+    }
+
+    private static void writeInteraction(DataOutputStream data, Interaction interaction) throws IOException {
+        writeString(data, interaction.getInteractorA().getAcc());
+        writeString(data, interaction.getInteractorA().getAlias());
+        writeString(data, interaction.getInteractorB().getAcc());
+        writeString(data, interaction.getInteractorB().getAlias());
+        Double score = interaction.getIntactScore();
+        if (score != null) {
+            data.writeByte(1);
+            data.writeDouble(score);
+        } else {
+            data.writeByte(0);
+        }
+        List<InteractionDetails> details = interaction.getInteractionDetailsList();
+        if (details == null) details = Collections.emptyList();
+        data.writeInt(details.size());
+        for (InteractionDetails detail : details) {
+            writeString(data, detail.getInteractionAc());
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String str) throws IOException {
+        if (str == null) {
+            data.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+    }
+}
@@ -3,12 +3,20 @@ package org.reactome.server.service.utils;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.shaded.org.objenesis.strategy.StdInstantiatorStrategy;
+import org.apache.commons.io.IOUtils;
+import org.reactome.server.interactors.model.Interaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Antonio Fabregat <fabregat@ebi.ac.uk>
@@ -18,52 +26,229 @@ public class TupleManager {
 
     private static Logger logger = LoggerFactory.getLogger("TupleManager");
 
+    /**
+     * The deserialized object graph takes more space in the heap than its Kryo
+     * representation on disk, so the file size is scaled up to estimate the weight
+     */
+    private static final int HEAP_EXPANSION_FACTOR = 3;
+
+    /**
+     * Every token file starts with these bytes followed by the format version
+     */
+    private static final byte[] MAGIC = {'R', 'T', 'K'};
+    private static final int VERSION = 1;
+
+    private static final int KRYO_POOL_MAX_IDLE = 16;
+
+    private static final long DEFAULT_CACHE_MAX_SIZE = 268435456L; // 256 MB
+
+    /**
+     * Minimum time between touches of the files of a token that is not read from the disk
+     */
+    private static final long TOUCH_INTERVAL = 600000L; // 10 minutes
+
+    private final TupleCache cache = new TupleCache(DEFAULT_CACHE_MAX_SIZE);
+
+    private final KryoPool kryoPool = new KryoPool(KRYO_POOL_MAX_IDLE);
+
+    // Last time the files of a token were touched because its index was used
+    private final Map<String, Long> indexTouched = new ConcurrentHashMap<>();
+
     private String pathDirectory;
 
     public void setPathDirectory(String pathDirectory) {
         this.pathDirectory = pathDirectory;
     }
 
+    public void setCacheMaxSize(Long cacheMaxSize) {
+        cache.setMaxWeight(cacheMaxSize);
+    }
+
     public Object readToken(String token){
+        Object rtn = cache.get(token);
+        if (rtn != null) {
+            //The token file is not read on a hit, so it is touched to keep it alive for the LRU checker
+            if (cache.touch(token, TOUCH_INTERVAL)) touch(token);
+            return rtn;
+        }
         try {
-            return read(pathDirectory + "/" + token + ".bin");
+            File file = new File(pathDirectory + "/" + token + ".bin");
+            rtn = read(file.getPath());
+            if (rtn != null) cache.put(token, rtn, file.length() * HEAP_EXPANSION_FACTOR);
+            if (logger.isDebugEnabled()) logger.debug(getCacheStatistics());
+            return rtn;
         } catch (FileNotFoundException | ClassCastException e) {
             return null;
         }
     }
 
-    public void saveToken(String token, Object object){
+    /**
+     * Opens the memory mapped index of a custom tuple token
+     *
+     * @return the index or null if there is not index for the given token
+     */
+    public TupleIndex readIndex(String token) {
+        File file = new File(pathDirectory + "/" + token + ".idx");
+        if (!file.exists()) return null;
+        try {
+            TupleIndex rtn = TupleIndex.open(file);
+            //The token files are not read when the index is used, so they are touched to keep them alive for the LRU checker
+            if (touchIndex(token)) touch(token);
+            return rtn;
+        } catch (IOException e) {
+            //Indexes written in a previous format are ignored and rebuilt
+            logger.warn(String.format("%s index could not be opened: %s", token, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index of a custom tuple token
+     *
+     * @param interactions the sorted interactions of each accession, with the accession in side A
+     */
+    public void saveIndex(String token, SortedMap<String, List<Interaction>> interactions) {
         long start = System.currentTimeMillis();
         try {
-            String fileName = pathDirectory + "/" + token + ".bin";
+            File tmp = File.createTempFile(token, ".tmp", new File(pathDirectory));
+            TupleIndex.write(tmp, interactions);
+            moveAtomically(tmp, new File(pathDirectory + "/" + token + ".idx"));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        long end = System.currentTimeMillis();
+        logger.info(String.format("%s index saved in %d ms", token, end - start));
+    }
+
+    /**
+     * Removes the token from the in-memory tier. Used when the file has been deleted from the disk
+     */
+    public void invalidate(String token) {
+        cache.invalidate(token);
+        indexTouched.remove(token);
+        //The index is useless without its token file
+        //noinspection ResultOfMethodCallIgnored
+        new File(pathDirectory + "/" + token + ".idx").delete();
+    }
 
-            Kryo kryo = new Kryo();
-            kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-            OutputStream file = new FileOutputStream(fileName);
-            Output output = new Output(file);
-            kryo.writeClassAndObject(output, object);
+    public long getCacheHits() {
+        return cache.getHits();
+    }
 
-            output.close();
-        } catch (FileNotFoundException e) {
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    public long getCacheEvictions() {
+        return cache.getEvictions();
+    }
+
+    public long getCacheSize() {
+        return cache.getWeight();
+    }
+
+    public String getCacheStatistics() {
+        return String.format("Tuple cache: %d tokens, %d bytes (estimated), %d hits, %d misses, %d evictions",
+                cache.size(), cache.getWeight(), cache.getHits(), cache.getMisses(), cache.getEvictions());
+    }
+
+    public void saveToken(String token, Object object){
+        long start = System.currentTimeMillis();
+        String fileName = pathDirectory + "/" + token + ".bin";
+        Kryo kryo = kryoPool.borrow();
+        try {
+            File tmp = File.createTempFile(token, ".tmp", new File(pathDirectory));
+            try (OutputStream file = new FileOutputStream(tmp)) {
+                file.write(MAGIC);
+                file.write(VERSION);
+                Output output = new Output(file);
+                kryo.writeClassAndObject(output, object);
+                output.flush();
+            }
+            moveAtomically(tmp, new File(fileName));
+        } catch (IOException e) {
             logger.error(e.getMessage(), e);
+            return;
+        } finally {
+            kryoPool.release(kryo);
         }
+        cache.put(token, object, new File(fileName).length() * HEAP_EXPANSION_FACTOR);
         long end = System.currentTimeMillis();
         logger.info(String.format("%s saved in %d ms", object.getClass().getSimpleName(), end - start));
     }
 
+    /**
+     * Records a use of the index of the token once the touch interval has passed since the previous one
+     *
+     * @return true if the use has been recorded (so the caller touches the files)
+     */
+    private boolean touchIndex(String token) {
+        long now = System.currentTimeMillis();
+        Long previous = indexTouched.get(token);
+        if (previous == null) return indexTouched.putIfAbsent(token, now) == null;
+        return now - previous >= TOUCH_INTERVAL && indexTouched.replace(token, previous, now);
+    }
+
+    private void touch(String token) {
+        long now = System.currentTimeMillis();
+        //noinspection ResultOfMethodCallIgnored
+        new File(pathDirectory + "/" + token + ".bin").setLastModified(now);
+        //noinspection ResultOfMethodCallIgnored
+        new File(pathDirectory + "/" + token + ".idx").setLastModified(now);
+    }
+
+    /**
+     * Files are written to a temporary file first and then moved into place, so
+     * concurrent readers never see a half-written token
+     */
+    private void moveAtomically(File tmp, File target) throws IOException {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+    }
+
     private Object read(String fileName) throws FileNotFoundException {
-        InputStream file = new FileInputStream(fileName);
+        InputStream file = new BufferedInputStream(new FileInputStream(fileName));
         Object rtn = read(file);
         logger.info(fileName + " retrieved");
         return rtn;
     }
 
     private Object read(InputStream file){
-        Kryo kryo = new Kryo();
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-        Input input = new Input(file);
-        Object obj = kryo.readClassAndObject(input);
-        input.close();
-        return obj;
+        try (Input input = new Input(file)) {
+            if (!hasHeader(file)) {
+                //Files written before the header was introduced are still supported
+                return KryoPool.createLegacy().readClassAndObject(input);
+            }
+            Kryo kryo = kryoPool.borrow();
+            try {
+                return kryo.readClassAndObject(input);
+            } finally {
+                kryoPool.release(kryo);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Consumes the header when present. Otherwise the stream is rewound to its beginning
+     */
+    private boolean hasHeader(InputStream file) throws IOException {
+        file.mark(MAGIC.length + 1);
+        byte[] header = new byte[MAGIC.length + 1];
+        int read = IOUtils.read(file, header);
+        if (read == header.length && Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))) {
+            int version = header[MAGIC.length];
+            if (version != VERSION) throw new IOException("Unsupported tuple file version " + version);
+            return true;
+        }
+        file.reset();
+        return false;
     }
 }
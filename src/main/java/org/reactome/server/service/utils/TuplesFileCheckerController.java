@@ -1,5 +1,6 @@
 package org.reactome.server.service.utils;
 
+import org.apache.commons.io.FilenameUtils;
 import org.reactome.server.utils.lru.LruFolderContentChecker;
 import org.reactome.server.utils.lru.LruFolderContentCheckerFileDeletedHandler;
 import org.slf4j.Logger;
@@ -16,6 +17,8 @@ public class TuplesFileCheckerController implements LruFolderContentCheckerFileD
 
     private static Thread checker = null;
 
+    private TupleManager tupleManager;
+
     private String pathDirectory;
     private Long maxSize;
     private Long threshold;
@@ -26,6 +29,10 @@ public class TuplesFileCheckerController implements LruFolderContentCheckerFileD
         Thread.currentThread().setName("CS-TupleFilesChecker");
     }
 
+    public void setTupleManager(TupleManager tupleManager) {
+        this.tupleManager = tupleManager;
+    }
+
     public void setPathDirectory(String pathDirectory) {
         this.pathDirectory = pathDirectory;
         this.initialize();
@@ -80,6 +87,9 @@ public class TuplesFileCheckerController implements LruFolderContentCheckerFileD
 
     @Override
     public void onLruFolderContentCheckerFileDeleted(String fileName) {
-        //Nothing here TODO?
+        //The file is gone, so the in-memory copy has to go as well to keep both tiers consistent
+        if (tupleManager != null && fileName != null && fileName.endsWith(".bin")) {
+            tupleManager.invalidate(FilenameUtils.getBaseName(fileName));
+        }
     }
 }
@@ -0,0 +1,27 @@
+package org.reactome.server.service.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+
+/**
+ * Graph database services for the benchmarks that need a database. The connection is set in
+ * ogm.properties, so the test sources have to be compiled with the profile that sets the neo4j.*
+ * properties (i.e. "mvn test-compile -P reactome") and the database has to be running
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@Configuration
+@ComponentScan("org.reactome.server.graph")
+@PropertySource("classpath:/service.properties")
+public class GraphTestConfig {
+
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer placeholderConfigurer() {
+        PropertySourcesPlaceholderConfigurer rtn = new PropertySourcesPlaceholderConfigurer();
+        rtn.setIgnoreUnresolvablePlaceholders(true);
+        return rtn;
+    }
+}
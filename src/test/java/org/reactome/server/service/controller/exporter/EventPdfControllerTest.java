@@ -0,0 +1,102 @@
+package org.reactome.server.service.controller.exporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactome.server.analysis.core.result.AnalysisStoredResult;
+import org.reactome.server.service.manager.EventPdfManager;
+import org.reactome.server.tools.event.exporter.DocumentArgs;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Downloads of the documents generated by the PDF jobs. The generation is replaced by one that writes
+ * a fixed content
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class EventPdfControllerTest {
+
+    private static final byte[] DOCUMENT = "%PDF-1.4 R-HSA-1".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountDownLatch generate = new CountDownLatch(1);
+
+    private EventPdfManager eventPdfManager;
+    private MockMvc mvc;
+
+    @Before
+    public void setUp() throws Exception {
+        eventPdfManager = new EventPdfManager() {
+            @Override
+            protected int export(DocumentArgs args, AnalysisStoredResult analysisResult, OutputStream os) throws Exception {
+                generate.await(10, TimeUnit.SECONDS);
+                os.write(DOCUMENT);
+                return 1;
+            }
+        };
+        ReflectionTestUtils.setField(eventPdfManager, "diagramExporterTempFolder", folder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(eventPdfManager, "threads", 1);
+        ReflectionTestUtils.setField(eventPdfManager, "maxQueue", 10);
+        ReflectionTestUtils.setField(eventPdfManager, "jobTtl", 60000L);
+        eventPdfManager.init();
+
+        EventPdfController controller = new EventPdfController();
+        controller.setEventPdfManager(eventPdfManager);
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @After
+    public void tearDown() {
+        generate.countDown();
+        eventPdfManager.shutdown();
+    }
+
+    @Test
+    public void finishedJobsAreDownloaded() throws Exception {
+        generate.countDown();
+        EventPdfManager.Job job = eventPdfManager.submit("R-HSA-1", new DocumentArgs("R-HSA-1"), null, null);
+        job.getFuture().get(10, TimeUnit.SECONDS);
+
+        MvcResult result = mvc.perform(get("/exporter/document/job/{id}.pdf", job.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/pdf"))
+                .andExpect(header().longValue("Content-Length", DOCUMENT.length))
+                .andExpect(content().bytes(DOCUMENT));
+    }
+
+    @Test
+    public void runningJobsAnswerTheirStatus() throws Exception {
+        EventPdfManager.Job job = eventPdfManager.submit("R-HSA-1", new DocumentArgs("R-HSA-1"), null, null);
+        String status = "/exporter/document/job/" + job.getId();
+
+        MvcResult result = mvc.perform(get("/exporter/document/job/{id}.pdf", job.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isAccepted())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("Location", status))
+                .andExpect(content().string(containsString("\"status\":\"" + status + "\"")));
+    }
+}
@@ -0,0 +1,104 @@
+package org.reactome.server.service.manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactome.server.interactors.model.Interaction;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+import org.reactome.server.service.exception.RequestEntityTooLargeException;
+import org.reactome.server.service.utils.StubServer;
+import org.reactome.server.service.utils.TupleManager;
+import org.reactome.server.service.utils.Tuples;
+import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class CustomInteractorManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private CustomInteractorManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] content = Tuples.getContent(1000, 100).getBytes(StandardCharsets.UTF_8);
+        server = new StubServer().serve("/tuples.txt", "text/plain", content);
+        manager = getManager(folder.getRoot(), 52428800L);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void urlUploadsAreStoredOnce() throws Exception {
+        TupleResult first = manager.getUserDataContainerFromURL("test", "tuples.txt", server.getUrl("/tuples.txt"));
+        String token = first.getSummary().getToken();
+        assertNotNull(token);
+        assertTrue(new File(folder.getRoot(), token + ".bin").exists());
+        assertTrue(new File(folder.getRoot(), token + ".idx").exists());
+
+        TupleResult second = manager.getUserDataContainerFromURL("test", "tuples.txt", server.getUrl("/tuples.txt"));
+        assertEquals(token, second.getSummary().getToken());
+    }
+
+    @Test
+    public void urlUploadsAreHashedWithTheName() throws Exception {
+        TupleResult first = manager.getUserDataContainerFromURL("first", "tuples.txt", server.getUrl("/tuples.txt"));
+        TupleResult second = manager.getUserDataContainerFromURL("second", "tuples.txt", server.getUrl("/tuples.txt"));
+        assertNotEquals(first.getSummary().getToken(), second.getSummary().getToken());
+    }
+
+    @Test(expected = RequestEntityTooLargeException.class)
+    public void largeUrlUploadsAreRejected() throws Exception {
+        manager = getManager(folder.getRoot(), 1024L);
+        manager.getUserDataContainerFromURL("test", "tuples.txt", server.getUrl("/tuples.txt"));
+    }
+
+    @Test
+    public void indexedQueriesMatchTheResource() throws Exception {
+        TupleResult result = manager.getUserDataContainerFromContent("test", Tuples.getContent(1000, 100));
+        Set<String> proteins = new HashSet<>();
+        for (int i = 0; i < 100; i += 3) proteins.add(Tuples.getAccession(i));
+
+        Map<String, List<Interaction>> indexed = manager.getInteractionsByTokenAndProteins(result.getSummary().getToken(), proteins);
+        Map<String, List<Interaction>> expected = manager.getInteractorFromCustomResource(result.getCustomResource(), proteins);
+        assertEquals(expected.keySet(), indexed.keySet());
+        for (String acc : proteins) {
+            for (Interaction interaction : indexed.get(acc)) assertEquals(acc, interaction.getInteractorA().getAcc());
+            assertEquals(acc, getPartners(expected.get(acc)), getPartners(indexed.get(acc)));
+        }
+    }
+
+    private static List<String> getPartners(List<Interaction> interactions) {
+        //Interactions without score can come in any order
+        List<String> rtn = new ArrayList<>();
+        for (Interaction interaction : interactions) rtn.add(interaction.getInteractorB().getAcc());
+        Collections.sort(rtn);
+        return rtn;
+    }
+
+    static CustomInteractorManager getManager(File folder, long maxUploadSize) {
+        TupleManager tupleManager = new TupleManager();
+        tupleManager.setPathDirectory(folder.getPath());
+        CommonsMultipartResolver multipartResolver = new CommonsMultipartResolver();
+        multipartResolver.setMaxUploadSize(maxUploadSize);
+
+        CustomInteractorManager rtn = new CustomInteractorManager();
+        rtn.tupleManager = tupleManager;
+        rtn.multipartResolver = multipartResolver;
+        return rtn;
+    }
+}
@@ -0,0 +1,88 @@
+package org.reactome.server.service.manager;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.interactors.exception.CustomPsicquicInteractionClusterException;
+import org.reactome.server.interactors.model.Interaction;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+import org.reactome.server.service.utils.Tuples;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries of 1, 100 and 1,000 accessions per POST against a custom interactors token of 100,000
+ * interactions, through the token index and by filtering the stored resource (as done before).
+ * Each query is also run concurrently, since they are the typical load on the service.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CustomInteractorQueryBenchmark {
+
+    private static final int INTERACTIONS = 100000;
+    private static final int ACCESSIONS = 10000;
+
+    @Param({"1", "100", "1000"})
+    private int accessions;
+
+    private File folder;
+    private CustomInteractorManager manager;
+    private TupleResult result;
+    private String token;
+    private Set<String> proteins;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("tuples").toFile();
+        manager = CustomInteractorManagerTest.getManager(folder, 52428800L);
+        result = manager.getUserDataContainerFromContent("benchmark", Tuples.getContent(INTERACTIONS, ACCESSIONS));
+        token = result.getSummary().getToken();
+
+        proteins = new HashSet<>();
+        Random random = new Random(accessions);
+        while (proteins.size() < accessions) proteins.add(Tuples.getAccession(random.nextInt(ACCESSIONS)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public Map<String, List<Interaction>> index() throws CustomPsicquicInteractionClusterException {
+        return manager.getInteractionsByTokenAndProteins(token, proteins);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Map<String, List<Interaction>> concurrentIndex() throws CustomPsicquicInteractionClusterException {
+        return index();
+    }
+
+    @Benchmark
+    public Map<String, List<Interaction>> resource() {
+        return manager.getInteractorFromCustomResource(result.getCustomResource(), proteins);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Map<String, List<Interaction>> concurrentResource() {
+        return resource();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CustomInteractorQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package org.reactome.server.service.manager;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.interactors.tuple.exception.ParserException;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+import org.reactome.server.service.utils.StubServer;
+import org.reactome.server.service.utils.Tuples;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads of custom interactor files through a URL (served by a local stub server) of different
+ * sizes. Every upload has a different name, so all of them are hashed, parsed and stored.
+ * <p>
+ * Run with "-prof gc" to get the heap allocated per upload (gc.alloc.rate.norm), which is the
+ * figure to compare between sizes. concurrentUpload keeps several uploads running at once.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CustomInteractorUploadBenchmark {
+
+    // Approximated size of the uploaded file in MB (the upload limit is 50 MB)
+    @Param({"1", "10", "40"})
+    private int size;
+
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    private File folder;
+    private StubServer server;
+    private CustomInteractorManager manager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        //Lines are about 14 bytes long
+        int interactions = size * 1024 * 1024 / 14;
+        byte[] content = Tuples.getContent(interactions, interactions / 10).getBytes(StandardCharsets.UTF_8);
+        server = new StubServer().serve("/tuples.txt", "text/plain", content);
+
+        folder = Files.createTempDirectory("tuples").toFile();
+        manager = CustomInteractorManagerTest.getManager(folder, 52428800L);
+        //Nothing kept in memory between uploads
+        manager.tupleManager.setCacheMaxSize(0L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public TupleResult upload() throws ParserException {
+        return manager.getUserDataContainerFromURL("upload" + uploads.incrementAndGet(), "tuples.txt", server.getUrl("/tuples.txt"));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TupleResult concurrentUpload() throws ParserException {
+        return upload();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CustomInteractorUploadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
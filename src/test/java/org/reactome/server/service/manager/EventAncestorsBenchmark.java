@@ -0,0 +1,73 @@
+package org.reactome.server.service.manager;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.graph.domain.model.Pathway;
+import org.reactome.server.graph.service.EventsService;
+import org.reactome.server.service.config.GraphTestConfig;
+import org.reactome.server.service.utils.ResponseCache;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ancestors of events at different depths of the hierarchy, from the in-memory events graph
+ * (plus the query for the events in the paths) and from the Cypher query that expands the paths.
+ * It needs a running graph database (see {@link GraphTestConfig}).
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventAncestorsBenchmark {
+
+    // Top level pathway, pathway and a reaction deep in the hierarchy
+    @Param({"R-HSA-1640170", "R-HSA-69278", "R-HSA-141409"})
+    private String stId;
+
+    private AnnotationConfigApplicationContext context;
+    private EventAncestorsManager eventAncestorsManager;
+    private EventsService eventsService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        context = new AnnotationConfigApplicationContext();
+        context.register(GraphTestConfig.class, ResponseCache.class, EventAncestorsManager.class);
+        context.refresh();
+        eventAncestorsManager = context.getBean(EventAncestorsManager.class);
+        eventsService = context.getBean(EventsService.class);
+
+        //The graph is built in the background
+        long start = System.currentTimeMillis();
+        while (!eventAncestorsManager.isReady()) {
+            if (System.currentTimeMillis() - start > 600000) throw new IllegalStateException("The events graph is not ready");
+            Thread.sleep(1000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Collection<Collection<Pathway>> graph() {
+        return eventAncestorsManager.getEventAncestors(stId);
+    }
+
+    @Benchmark
+    public Collection<Collection<Pathway>> cypher() {
+        return eventsService.getEventAncestors(stId);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EventAncestorsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,158 @@
+package org.reactome.server.service.manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent PPTX exports. The generation is replaced by one that records when it runs
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class ExportManagerTest {
+
+    private static final int MAX_CONCURRENT = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger generations = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private ExportManager exportManager;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        exportManager = new ExportManager() {
+            @Override
+            File getPPTXFolder(String colorProfile) {
+                return folder.getRoot();
+            }
+        };
+        exportManager.pptxMaxConcurrent = MAX_CONCURRENT;
+        exportManager.init();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void differentPathwaysAreExportedConcurrently() throws Exception {
+        CountDownLatch started = new CountDownLatch(MAX_CONCURRENT);
+        List<Future<Boolean>> overlaps = new ArrayList<>();
+        for (int i = 0; i < MAX_CONCURRENT; i++) {
+            String stId = "R-HSA-" + i;
+            overlaps.add(executor.submit(() -> {
+                boolean[] rtn = new boolean[1];
+                export(stId, outputFolder -> {
+                    started.countDown();
+                    //Every generation waits for the others, so it only finishes in time if they overlap
+                    rtn[0] = started.await(5, TimeUnit.SECONDS);
+                    return write(outputFolder, stId);
+                });
+                return rtn[0];
+            }));
+        }
+        for (Future<Boolean> overlap : overlaps) assertTrue(overlap.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentGenerationsAreBounded() throws Exception {
+        List<Future<File>> files = new ArrayList<>();
+        for (int i = 0; i < MAX_CONCURRENT * 3; i++) {
+            String stId = "R-HSA-" + i;
+            files.add(executor.submit(() -> export(stId, outputFolder -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(100);
+                running.decrementAndGet();
+                return write(outputFolder, stId);
+            })));
+        }
+        for (Future<File> file : files) assertTrue(file.get(10, TimeUnit.SECONDS).exists());
+        assertTrue(maxRunning.get() <= MAX_CONCURRENT);
+    }
+
+    @Test
+    public void samePathwayIsGeneratedOnce() throws Exception {
+        List<Future<File>> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(executor.submit(() -> export("R-HSA-1", outputFolder -> {
+                generations.incrementAndGet();
+                Thread.sleep(200);
+                return write(outputFolder, "R-HSA-1");
+            })));
+        }
+        File expected = new File(folder.getRoot(), "R-HSA-1.pptx");
+        for (Future<File> file : files) assertEquals(expected, file.get(10, TimeUnit.SECONDS));
+        assertEquals(1, generations.get());
+        //Locks are not kept once the generation is done
+        assertTrue(exportManager.pptxLocks.isEmpty());
+    }
+
+    @Test
+    public void generatedFilesAreNotLocked() throws Exception {
+        File pptx = export("R-HSA-1", outputFolder -> write(outputFolder, "R-HSA-1"));
+
+        //Another thread holds the lock of the same pathway while the generated file is requested
+        String path = new File(folder.getRoot().getAbsolutePath() + "/R-HSA-1.pptx").getPath();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = executor.submit(() -> {
+            ExportManager.PPTXLock lock = exportManager.lockPPTX(path);
+            try {
+                locked.countDown();
+                release.await();
+            } finally {
+                exportManager.unlockPPTX(path, lock);
+            }
+            return null;
+        });
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        Future<File> cached = executor.submit(() -> export("R-HSA-1", outputFolder -> {
+            throw new IOException("A generated file must not be generated again");
+        }));
+        assertEquals(pptx, cached.get(1, TimeUnit.SECONDS));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+    }
+
+    private File export(String stId, Generator generator) throws Exception {
+        return exportManager.getPPTX(stId, "Modern", false, outputFolder -> {
+            try {
+                return generator.export(outputFolder);
+            } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static File write(String outputFolder, String stId) throws IOException {
+        File rtn = new File(outputFolder, stId + ".pptx");
+        Files.write(rtn.toPath(), stId.getBytes());
+        return rtn;
+    }
+
+    @FunctionalInterface
+    private interface Generator {
+        File export(String outputFolder) throws InterruptedException, IOException;
+    }
+}
@@ -0,0 +1,85 @@
+package org.reactome.server.service.manager;
+
+import org.neo4j.ogm.session.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.graph.domain.model.Event;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.graph.service.DatabaseObjectService;
+import org.reactome.server.graph.service.GeneralService;
+import org.reactome.server.service.config.GraphTestConfig;
+import org.reactome.server.tools.sbml.converter.SbmlConverter;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SBML conversion of large pathways with the graph prefetched (a fixed number of queries, the
+ * prefetch ones plus the event) and lazy loaded object by object (as done before). The shared
+ * cache is cleared before every conversion, so none of them starts with the pathway loaded.
+ * The number of queries of each one can be compared in the database query log.
+ * It needs a running graph database (see {@link GraphTestConfig}).
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportPrefetchBenchmark {
+
+    @Param({"R-HSA-162582", "R-HSA-1640170"})
+    private String stId;
+
+    private AnnotationConfigApplicationContext context;
+    private ExportManager exportManager;
+    private GeneralService generalService;
+    private DatabaseObjectService databaseObjectService;
+    private AdvancedDatabaseObjectService advancedDatabaseObjectService;
+    private Integer version;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(GraphTestConfig.class);
+        generalService = context.getBean(GeneralService.class);
+        databaseObjectService = context.getBean(DatabaseObjectService.class);
+        advancedDatabaseObjectService = context.getBean(AdvancedDatabaseObjectService.class);
+        version = generalService.getDBInfo().getVersion();
+
+        exportManager = new ExportManager();
+        exportManager.setSessionFactory(context.getBean(SessionFactory.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String prefetched() {
+        generalService.clearCache();
+        Event event = (Event) databaseObjectService.findByIdNoRelations(stId);
+        return convert(exportManager.prefetch(event));
+    }
+
+    @Benchmark
+    public String lazy() {
+        generalService.clearCache();
+        Event event = (Event) databaseObjectService.findByIdNoRelations(stId);
+        return convert(event);
+    }
+
+    private String convert(Event event) {
+        SbmlConverter converter = new SbmlConverter(event, version, advancedDatabaseObjectService);
+        converter.convert();
+        return converter.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ExportPrefetchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package org.reactome.server.service.manager;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.graph.domain.model.Interaction;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.graph.service.InteractionsService;
+import org.reactome.server.interactors.service.PsicquicService;
+import org.reactome.server.service.config.GraphTestConfig;
+import org.reactome.server.service.model.interactors.Interactors;
+import org.reactome.server.service.utils.PsicquicQueryExecutor;
+import org.reactome.server.service.utils.PsicquicResponseCache;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the static interactors details (POST) for different numbers of accessions, with the
+ * accessions queried in parallel chunks and one after the other (as done before).
+ * It needs a running graph database (see {@link GraphTestConfig}).
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StaticInteractionsBenchmark {
+
+    private static final String ACCESSIONS_QUERY = "" +
+            "MATCH (:Interaction)-[:interactor]->(re:ReferenceEntity) " +
+            "RETURN DISTINCT re.identifier " +
+            "LIMIT {size}";
+
+    @Param({"1", "10", "100", "1000"})
+    private int accessions;
+
+    private AnnotationConfigApplicationContext context;
+    private InteractionManager interactionManager;
+    private InteractionsService interactionsService;
+    private List<String> accs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = new AnnotationConfigApplicationContext();
+        context.register(GraphTestConfig.class, PsicquicService.class, PsicquicQueryExecutor.class, PsicquicResponseCache.class, InteractionManager.class);
+        context.refresh();
+        interactionManager = context.getBean(InteractionManager.class);
+        interactionsService = context.getBean(InteractionsService.class);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("size", accessions);
+        accs = new ArrayList<>(context.getBean(AdvancedDatabaseObjectService.class).getCustomQueryResults(String.class, ACCESSIONS_QUERY, params));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Interactors chunked() {
+        return interactionManager.getStaticProteinDetails(accs, "static", -1, -1);
+    }
+
+    @Benchmark
+    public Map<String, List<Interaction>> sequential() {
+        Map<String, List<Interaction>> rtn = new LinkedHashMap<>();
+        for (String acc : accs) {
+            rtn.put(acc, interactionsService.getInteractions(acc, -1, -1));
+        }
+        return rtn;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StaticInteractionsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+package org.reactome.server.service.utils;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class EventGraphTest {
+
+    private static final long[] DB_IDS = {50L, 40L, 30L, 20L, 10L};
+    private static final String[] ST_IDS = {"R-HSA-50", "R-HSA-40", "R-HSA-30", "R-HSA-20", "R-HSA-10"};
+
+    @Test
+    public void ancestorsGoUpToEveryTopLevelPathway() {
+        EventGraph graph = getGraph(10L, 20L, 20L, 30L, 40L, 30L);
+        assertEquals(paths(new long[]{30L, 20L, 10L}, new long[]{30L, 40L}), getAncestors(graph, "R-HSA-30"));
+        assertEquals(paths(new long[]{20L, 10L}), getAncestors(graph, "20"));
+    }
+
+    @Test
+    public void topLevelPathwaysAreTheirOwnPath() {
+        EventGraph graph = getGraph(10L, 20L);
+        assertEquals(paths(new long[]{10L}), getAncestors(graph, "R-HSA-10"));
+    }
+
+    @Test
+    public void eventsOutsideTheHierarchyHaveNoAncestors() {
+        EventGraph graph = getGraph(10L, 20L);
+        assertTrue(getAncestors(graph, "R-HSA-50").isEmpty());
+    }
+
+    @Test
+    public void cyclesAreNotFollowed() {
+        EventGraph graph = getGraph(10L, 20L, 20L, 30L, 30L, 20L);
+        assertEquals(paths(new long[]{30L, 20L, 10L}), getAncestors(graph, "R-HSA-30"));
+    }
+
+    @Test
+    public void unknownIdentifiersAreNotFound() {
+        EventGraph graph = getGraph(10L, 20L);
+        assertEquals(-1, graph.indexOf("R-HSA-60"));
+        assertEquals(-1, graph.indexOf("60"));
+        assertEquals(-1, graph.indexOf("R-HSA"));
+        assertEquals(5, graph.size());
+    }
+
+    private static EventGraph getGraph(long... edges) {
+        BitSet tlps = new BitSet();
+        tlps.set(1); //40
+        tlps.set(4); //10
+        return new EventGraph(DB_IDS, ST_IDS, tlps, edges);
+    }
+
+    private static Set<List<Long>> getAncestors(EventGraph graph, String identifier) {
+        Set<List<Long>> rtn = new HashSet<>();
+        for (int[] path : graph.getAncestors(graph.indexOf(identifier))) {
+            List<Long> aux = new ArrayList<>();
+            for (int node : path) aux.add(graph.getDbId(node));
+            rtn.add(aux);
+        }
+        return rtn;
+    }
+
+    private static Set<List<Long>> paths(long[]... paths) {
+        Set<List<Long>> rtn = new HashSet<>();
+        for (long[] path : paths) {
+            List<Long> aux = new ArrayList<>();
+            for (long dbId : path) aux.add(dbId);
+            rtn.add(aux);
+        }
+        return rtn;
+    }
+}
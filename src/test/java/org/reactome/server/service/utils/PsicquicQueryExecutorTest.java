@@ -0,0 +1,168 @@
+package org.reactome.server.service.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactome.server.service.exception.PsicquicContentException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The PSICQUIC services are stood for by a local stub server with a fast, a slow and a failing resource
+ *
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+public class PsicquicQueryExecutorTest {
+
+    private static final int PER_RESOURCE = 3;
+    private static final long TIMEOUT = 500L;
+    private static final int FAILURES = 3;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private StubServer server;
+    private PsicquicQueryExecutor executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer()
+                .serve("/fast", "text/plain", "P12345\tQ67890".getBytes(StandardCharsets.UTF_8))
+                .handle("/slow", exchange -> {
+                    requests.incrementAndGet();
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(TIMEOUT * 4);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    exchange.sendResponseHeaders(200, 0);
+                    exchange.close();
+                })
+                .handle("/error", exchange -> {
+                    requests.incrementAndGet();
+                    exchange.sendResponseHeaders(500, 0);
+                    exchange.close();
+                });
+        executor = new PsicquicQueryExecutor(10, PER_RESOURCE, TIMEOUT, FAILURES, 60000L);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void queriesAreAnswered() throws Exception {
+        assertEquals("P12345\tQ67890", executor.submit("fast", () -> get("/fast")).get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void slowResourcesTimeOut() throws Exception {
+        long start = System.currentTimeMillis();
+        CompletableFuture<String> future = executor.submit("slow", () -> get("/slow"));
+        assertTrue(getCause(future) instanceof PsicquicContentException);
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT * 4);
+    }
+
+    @Test
+    public void slowResourcesDoNotDelayTheOthers() throws Exception {
+        List<CompletableFuture<String>> slow = new ArrayList<>();
+        for (int i = 0; i < 20; i++) slow.add(executor.submit("slow", () -> get("/slow")));
+
+        long start = System.currentTimeMillis();
+        assertNotNull(executor.submit("fast", () -> get("/fast")).get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+        //Only a few slots are taken by the slow resource, the rest wait in its queue
+        assertTrue(maxRunning.get() <= PER_RESOURCE);
+        slow.forEach(f -> f.cancel(true));
+    }
+
+    @Test
+    public void failingResourcesAreShortCircuited() throws Exception {
+        for (int i = 0; i < FAILURES; i++) {
+            assertNotNull(getCause(executor.submit("error", () -> get("/error"))));
+        }
+        assertTrue(executor.isOpen("error"));
+
+        Throwable cause = getCause(executor.submit("error", () -> get("/error")));
+        assertTrue(cause instanceof PsicquicContentException);
+        assertEquals(FAILURES, requests.get());
+        assertFalse(executor.isOpen("fast"));
+    }
+
+    @Test
+    public void timedOutQueriesAreInterrupted() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> future = executor.submit("blocked", () -> {
+            try {
+                Thread.sleep(TIMEOUT * 10);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        assertTrue(getCause(future) instanceof PsicquicContentException);
+        assertTrue(interrupted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void rejectedTrialsDoNotKeepTheCircuitOpen() throws Exception {
+        long openTime = 100L;
+        PsicquicQueryExecutor busy = new PsicquicQueryExecutor(1, 1, 60000L, 1, openTime, 1);
+        try {
+            assertNotNull(getCause(busy.submit("error", () -> get("/error"))));
+            assertTrue(busy.isOpen("error"));
+
+            //The only thread and the only place in the queue are taken, so the trial is rejected
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Boolean> running = busy.submit("a", () -> release.await(TIMEOUT * 10, TimeUnit.MILLISECONDS));
+            CompletableFuture<Boolean> queued = busy.submit("b", () -> release.await(TIMEOUT * 10, TimeUnit.MILLISECONDS));
+            Thread.sleep(openTime * 2);
+            Throwable cause = getCause(busy.submit("error", () -> "trial"));
+            assertTrue(cause instanceof PsicquicContentException);
+            assertTrue(cause.getMessage().startsWith("Too many"));
+
+            release.countDown();
+            assertTrue(running.get(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertTrue(queued.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            //The next call is the trial one, so the resource is queried again
+            assertEquals("trial", busy.submit("error", () -> "trial").get(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertFalse(busy.isOpen("error"));
+        } finally {
+            busy.shutdown();
+        }
+    }
+
+    private Throwable getCause(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(TIMEOUT * 2, TimeUnit.MILLISECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private String get(String path) throws IOException {
+        try (InputStream is = new URL(server.getUrl(path)).openStream()) {
+            return IOUtils.toString(is, "UTF-8");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.reactome.server.service.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.reactome.server.service.utils.PsicquicResponseCache.Mode.SUMMARY;
+
+/**
+ * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
+ */
+public class PsicquicResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PsicquicQueryExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new PsicquicQueryExecutor(1, 1, 1000L, 5, 60000L);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void similarAccessionsDoNotShareTheirFiles() {
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("A:1", 1);
+        counts.put("A/1", 2);
+        counts.put("A_1", 3);
+        getCache().putAll("../resource", SUMMARY, counts);
+
+        //A new cache only finds the answers in the disk
+        Map<String, Integer> cached = getCache().getAll("../resource", Arrays.asList("A:1", "A/1", "A_1"), SUMMARY, accs -> new HashMap<>());
+        assertEquals(counts, cached);
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private PsicquicResponseCache getCache() {
+        return new PsicquicResponseCache(executor, folder.getRoot().getPath(), 100, 60000L, 120000L, 1048576L);
+    }
+}
@@ -0,0 +1,85 @@
+package org.reactome.server.service.utils;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and read latency of a token with the pooled, pre-registered Kryo instances against a
+ * new (unregistered) Kryo instance per call, which is how tokens were stored before.
+ * The size of both files is printed when the trial starts.
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TupleManagerBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int interactions;
+
+    private File folder;
+    private TupleManager tupleManager;
+    private TupleResult result;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("tuples").toFile();
+        tupleManager = new TupleManager();
+        tupleManager.setPathDirectory(folder.getPath());
+        result = Tuples.parse("benchmark", Tuples.getContent(interactions, interactions / 10));
+
+        pooledSave();
+        legacySave();
+        System.out.printf("%n%d interactions: pooled %d bytes, legacy %d bytes%n", interactions,
+                new File(folder, "pooled.bin").length(), new File(folder, "legacy.bin").length());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public void pooledSave() {
+        tupleManager.saveToken("pooled", result);
+    }
+
+    @Benchmark
+    public Object pooledRead() {
+        //Otherwise it is answered from the in-memory tier
+        tupleManager.invalidate("pooled");
+        return tupleManager.readToken("pooled");
+    }
+
+    @Benchmark
+    public void legacySave() throws IOException {
+        try (Output output = new Output(new FileOutputStream(new File(folder, "legacy.bin")))) {
+            KryoPool.createLegacy().writeClassAndObject(output, result);
+        }
+    }
+
+    @Benchmark
+    public Object legacyRead() throws IOException {
+        try (Input input = new Input(new BufferedInputStream(new FileInputStream(new File(folder, "legacy.bin"))))) {
+            return KryoPool.createLegacy().readClassAndObject(input);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TupleManagerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
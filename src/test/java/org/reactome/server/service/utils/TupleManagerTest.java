@@ -0,0 +1,97 @@
+package org.reactome.server.service.utils;
+
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class TupleManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TupleManager tupleManager;
+    private TupleResult result;
+
+    @Before
+    public void setUp() throws Exception {
+        tupleManager = new TupleManager();
+        tupleManager.setPathDirectory(folder.getRoot().getPath());
+        result = Tuples.parse("test", Tuples.getContent(100, 20));
+    }
+
+    @Test
+    public void savedTokensAreReadFromDisk() {
+        tupleManager.saveToken("saved", result);
+        tupleManager.invalidate("saved");
+
+        Object token = tupleManager.readToken("saved");
+        assertTrue(token instanceof TupleResult);
+        assertNotSame(result, token);
+        assertEquals(getSize(result), getSize((TupleResult) token));
+    }
+
+    @Test
+    public void savedTokensHaveHeader() throws Exception {
+        tupleManager.saveToken("header", result);
+
+        byte[] header = new byte[3];
+        try (InputStream is = new FileInputStream(new File(folder.getRoot(), "header.bin"))) {
+            assertEquals(3, is.read(header));
+        }
+        assertArrayEquals(new byte[]{'R', 'T', 'K'}, header);
+    }
+
+    @Test
+    public void legacyTokensAreStillRead() throws Exception {
+        try (Output output = new Output(new FileOutputStream(new File(folder.getRoot(), "legacy.bin")))) {
+            KryoPool.createLegacy().writeClassAndObject(output, result);
+        }
+
+        Object token = tupleManager.readToken("legacy");
+        assertTrue(token instanceof TupleResult);
+        assertEquals(getSize(result), getSize((TupleResult) token));
+    }
+
+    @Test
+    public void missingTokensAreNull() {
+        assertNull(tupleManager.readToken("missing"));
+    }
+
+    @Test
+    public void usedIndexesTouchTheTokenFilesOnce() {
+        tupleManager.saveToken("indexed", result);
+        tupleManager.saveIndex("indexed", new TreeMap<>());
+        File bin = new File(folder.getRoot(), "indexed.bin");
+        File idx = new File(folder.getRoot(), "indexed.idx");
+
+        long old = System.currentTimeMillis() - 3600000L;
+        assertTrue(bin.setLastModified(old) && idx.setLastModified(old));
+        assertNotNull(tupleManager.readIndex("indexed"));
+        assertTrue(bin.lastModified() > old);
+        assertTrue(idx.lastModified() > old);
+
+        //Within the touch interval the files are not touched again
+        assertTrue(bin.setLastModified(old) && idx.setLastModified(old));
+        assertNotNull(tupleManager.readIndex("indexed"));
+        assertEquals(old / 1000, bin.lastModified() / 1000);
+        assertEquals(old / 1000, idx.lastModified() / 1000);
+    }
+
+    private static int getSize(TupleResult result) {
+        return result.getCustomResource().getCustomInteractionSet().size();
+    }
+}
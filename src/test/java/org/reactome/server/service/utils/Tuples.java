@@ -0,0 +1,35 @@
+package org.reactome.server.service.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.reactome.server.interactors.tuple.exception.ParserException;
+import org.reactome.server.interactors.tuple.model.TupleResult;
+import org.reactome.server.interactors.tuple.util.ParserUtils;
+
+/**
+ * Generates custom interactor files (tuple format) for the tests and benchmarks
+ *
+ * @author Antonio Fabregat <fabregat@ebi.ac.uk>
+ */
+public class Tuples {
+
+    /**
+     * @param interactions number of interactions (lines)
+     * @param accessions   number of different accessions in the interactions
+     * @return the content of a file in the basic tuple format (two columns)
+     */
+    public static String getContent(int interactions, int accessions) {
+        StringBuilder sb = new StringBuilder("#Interactor A\tInteractor B\n");
+        for (int i = 0; i < interactions; i++) {
+            sb.append(getAccession(i % accessions)).append('\t').append(getAccession((i * 7 + 1) % accessions)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static String getAccession(int i) {
+        return String.format("P%05d", i);
+    }
+
+    public static TupleResult parse(String name, String content) throws ParserException {
+        return ParserUtils.getUserDataContainer(name, null, IOUtils.toInputStream(content));
+    }
+}